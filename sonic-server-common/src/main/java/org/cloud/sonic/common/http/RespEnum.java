@@ -45,6 +45,8 @@ public enum RespEnum {
     ID_NOT_FOUND(3001, "not.found.id"),
     DEVICE_NOT_FOUND(3002, "not.found.device"),
     AGENT_NOT_ONLINE(5001, "not.online.agent"),
+    AGENT_REPLY_TIMEOUT(5002, "timeout.reply.agent"),
+    AGENT_REPLY_FAIL(5003, "fail.reply.agent"),
     PARAMS_NOT_VALID(4004, "not.valid.params"),
     PARAMS_NOT_READABLE(4005, "not.readable.params"),
     PARAMS_MISSING_ERROR(4001, "error.params.missing"),
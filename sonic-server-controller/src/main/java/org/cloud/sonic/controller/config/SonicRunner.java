@@ -22,6 +22,7 @@ import org.cloud.sonic.controller.models.domain.ConfList;
 import org.cloud.sonic.controller.models.interfaces.ConfType;
 import org.cloud.sonic.controller.services.ConfListService;
 import org.cloud.sonic.controller.services.ResourcesService;
+import org.cloud.sonic.controller.services.ResultsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
@@ -40,6 +41,9 @@ public class SonicRunner implements ApplicationRunner {
     @Autowired
     private ConfListService confListService;
 
+    @Autowired
+    private ResultsService resultsService;
+
     @Value("${spring.version}")
     private String version;
 
@@ -48,6 +52,8 @@ public class SonicRunner implements ApplicationRunner {
         resourceInit();
         remoteInit();
         idleInit();
+        resultFinishedInit();
+        resultCountInit();
     }
 
     /**
@@ -102,4 +108,44 @@ public class SonicRunner implements ApplicationRunner {
         }
     }
 
+    /**
+     * results.finished 上线前的行默认都是 0，收发数量已一致的结果当时已发过结束通知，补上标记
+     */
+    private void resultFinishedInit() {
+        try {
+            ConfList conf = confListService.searchByKey(ConfType.RESULT_FINISHED_MIGRATED);
+            if (conf != null) {
+                log.info("result finished flag has been migrated...");
+                return;
+            }
+
+            int count = resultsService.markReportedFinished();
+            confListService.save(ConfType.RESULT_FINISHED_MIGRATED, String.valueOf(count), null);
+            log.info("result finished flag migrate finish, {} results marked.", count);
+
+        } catch (Exception e) {
+            log.error("migrate result finished flag error", e);
+        }
+    }
+
+    /**
+     * 计数列上线前仍在执行的结果计数为 0，按已落库的状态明细补齐，之后由状态消息增量维护
+     */
+    private void resultCountInit() {
+        try {
+            ConfList conf = confListService.searchByKey(ConfType.RESULT_COUNT_SEEDED);
+            if (conf != null) {
+                log.info("result status count has been seeded...");
+                return;
+            }
+
+            int count = resultsService.seedStatusCount();
+            confListService.save(ConfType.RESULT_COUNT_SEEDED, String.valueOf(count), null);
+            log.info("result status count seed finish, {} results updated.", count);
+
+        } catch (Exception e) {
+            log.error("seed result status count error", e);
+        }
+    }
+
 }
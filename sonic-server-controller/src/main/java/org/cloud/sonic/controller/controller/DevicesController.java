@@ -39,6 +39,7 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 设备管理控制器
@@ -142,6 +143,20 @@ public class DevicesController {
         return devicesService.occupy(occupyParams, token);
     }
 
+    @WebAspect
+    @Operation(summary = "通过REST API占用设备并等待确认", description = "远程占用设备，等 agent 确认端口开启后再返回，超时返回 5002 与远程地址，agent 处理失败返回 5003")
+    @Parameter(name = "timeout", description = "等待超时（毫秒），不传使用默认值")
+    @PostMapping("/occupyAndWait")
+    public CompletableFuture<RespModel> occupyAndWait(@Validated @RequestBody OccupyParams occupyParams,
+                                                      @RequestParam(name = "timeout", required = false, defaultValue = "0") long timeout,
+                                                      HttpServletRequest request) {
+        String token = request.getHeader("SonicToken");
+        if (token == null) {
+            return CompletableFuture.completedFuture(new RespModel(RespEnum.UNAUTHORIZED));
+        }
+        return devicesService.occupyAndWait(occupyParams, token, timeout);
+    }
+
     /**
      * 设备释放接口
      *
@@ -397,6 +412,36 @@ public class DevicesController {
         return new RespModel<>(RespEnum.SEARCH_OK, devicesService.findTemper());
     }
 
+    @WebAspect
+    @Operation(summary = "获取设备电池曲线", description = "获取设备近期温度、电量、电压的时间序列，不传时间默认最近一天；数据保存在设备 agent 所连接的实例上")
+    @Parameters(value = {
+        @Parameter(name = "id", description = "设备id"),
+        @Parameter(name = "startTime", description = "开始时间戳（毫秒）"),
+        @Parameter(name = "endTime", description = "结束时间戳（毫秒）")
+    })
+    @GetMapping("/telemetry")
+    public RespModel<List<JSONObject>> findTelemetry(@RequestParam(name = "id") int id,
+                                                     @RequestParam(name = "startTime", required = false) Long startTime,
+                                                     @RequestParam(name = "endTime", required = false) Long endTime) {
+        long end = endTime == null ? System.currentTimeMillis() : endTime;
+        long start = startTime == null ? end - 86400000L : startTime;
+        return new RespModel<>(RespEnum.SEARCH_OK, devicesService.findTelemetry(id, start, end));
+    }
+
+    @WebAspect
+    @Operation(summary = "获取全部设备电池曲线", description = "按时间聚合本实例所连接设备的平均温度、最高温度、平均电量")
+    @Parameters(value = {
+        @Parameter(name = "startTime", description = "开始时间戳（毫秒）"),
+        @Parameter(name = "endTime", description = "结束时间戳（毫秒）")
+    })
+    @GetMapping("/telemetry/fleet")
+    public RespModel<List<JSONObject>> findFleetTelemetry(@RequestParam(name = "startTime", required = false) Long startTime,
+                                                          @RequestParam(name = "endTime", required = false) Long endTime) {
+        long end = endTime == null ? System.currentTimeMillis() : endTime;
+        long start = startTime == null ? end - 86400000L : startTime;
+        return new RespModel<>(RespEnum.SEARCH_OK, devicesService.findFleetTelemetry(start, end));
+    }
+
     @WebAspect
     @Operation(summary = "删除设备", description = "设备必须离线才能删除，会删除设备与套件绑定关系")
     @DeleteMapping()
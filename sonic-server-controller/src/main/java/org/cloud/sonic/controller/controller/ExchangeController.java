@@ -32,11 +32,16 @@ import org.cloud.sonic.controller.models.interfaces.AgentStatus;
 import org.cloud.sonic.controller.services.AgentsService;
 import org.cloud.sonic.controller.services.DevicesService;
 import org.cloud.sonic.controller.tools.BytesTool;
+import org.cloud.sonic.controller.transport.AgentOutbox;
+import org.cloud.sonic.controller.transport.AgentReplyRegistry;
+import org.cloud.sonic.controller.transport.AgentSessionRegistry;
 import org.cloud.sonic.controller.transport.TransportWorker;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.ObjectUtils;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @Tag(name = "调度相关")
 @RestController
 @RequestMapping("/exchange")
@@ -47,6 +52,14 @@ public class ExchangeController {
     private AgentsService agentsService;
     @Autowired
     private DevicesService devicesService;
+    @Autowired
+    private AgentSessionRegistry agentSessionRegistry;
+    @Autowired
+    private AgentReplyRegistry agentReplyRegistry;
+    @Autowired
+    private AgentOutbox agentOutbox;
+    @Autowired
+    private AgentKeepWsController agentKeepWsController;
 
     @WebAspect
     @Operation(summary = "重启设备", description = "根据 id 重启特定设备")
@@ -88,10 +101,54 @@ public class ExchangeController {
     @WhiteUrl
     @PostMapping("/send")
     public RespModel<String> send(@RequestParam(name = "id") int id, @RequestBody JSONObject jsonObject) {
-        Session agentSession = BytesTool.agentSessionMap.get(id);
+        Session agentSession = agentSessionRegistry.getSession(id);
         if (agentSession != null) {
-            BytesTool.sendText(agentSession, jsonObject.toJSONString());
+            BytesTool.sendText(agentSession, jsonObject);
         }
         return new RespModel<>(RespEnum.SEND_OK);
     }
+
+    //eureka调度用，agent 应答转发回发起请求的实例
+    @WebAspect
+    @WhiteUrl
+    @PostMapping("/reply")
+    public RespModel<String> reply(@RequestBody JSONObject jsonObject) {
+        agentReplyRegistry.complete(jsonObject.getString("requestId"), jsonObject);
+        return new RespModel<>(RespEnum.SEND_OK);
+    }
+
+    //eureka调度用，agent 重连后重发本实例发件箱中未确认的消息
+    @WebAspect
+    @WhiteUrl
+    @GetMapping("/replay")
+    public RespModel<String> replay(@RequestParam(name = "id") int id) {
+        TransportWorker.replay(id, false);
+        return new RespModel<>(RespEnum.SEND_OK);
+    }
+
+    //eureka调度用，agent 的 ack 转发回发件箱所在实例
+    @WebAspect
+    @WhiteUrl
+    @GetMapping("/ack")
+    public RespModel<String> ack(@RequestParam(name = "id") int id, @RequestParam(name = "seq") long seq) {
+        agentOutbox.ack(id, seq);
+        return new RespModel<>(RespEnum.SEND_OK);
+    }
+
+    //eureka调度用，设备变化转发给负责该设备保活连接的实例
+    @WebAspect
+    @WhiteUrl
+    @PostMapping("/keeper")
+    public RespModel<String> keeper(@RequestBody List<String> udIds) {
+        agentKeepWsController.markForwarded(udIds);
+        return new RespModel<>(RespEnum.SEND_OK);
+    }
+
+    //eureka调度用，按需通道的订阅转发给负责该设备的实例
+    @WebAspect
+    @WhiteUrl
+    @GetMapping("/subscribe")
+    public RespModel<String> subscribe(@RequestParam(name = "udId") String udId, @RequestParam(name = "channel") String channel) {
+        return agentKeepWsController.subscribeLocal(udId, channel) ? new RespModel<>(RespEnum.HANDLE_OK) : new RespModel<>(RespEnum.DEVICE_NOT_FOUND);
+    }
 }
@@ -29,10 +29,14 @@ import org.cloud.sonic.common.http.RespEnum;
 import org.cloud.sonic.common.http.RespModel;
 import org.cloud.sonic.controller.models.base.CommentPage;
 import org.cloud.sonic.controller.models.domain.Results;
+import org.cloud.sonic.controller.services.ResultRollupService;
 import org.cloud.sonic.controller.services.ResultsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
 /**
  * 测试结果管理控制器
  *
@@ -59,6 +63,8 @@ public class ResultsController {
 
     @Autowired
     private ResultsService resultsService;
+    @Autowired
+    private ResultRollupService resultRollupService;
 
     @WebAspect
     @Operation(summary = "查询测试结果列表", description = "查找对应项目id下的测试结果列表")
@@ -141,6 +147,30 @@ public class ResultsController {
         return new RespModel<>(RespEnum.SEARCH_OK, resultsService.chart(startTime, endTime, projectId));
     }
 
+    @WebAspect
+    @Operation(summary = "重算报表汇总", description = "按原始测试结果在后台分段重算指定日期区间的按天汇总，立即返回")
+    @Parameters(value = {
+        @Parameter(name = "startDay", description = "起始日期 yyyy-MM-dd"),
+        @Parameter(name = "endDay", description = "结束日期 yyyy-MM-dd")
+    })
+    @PostMapping("/rebuildRollup")
+    public RespModel<String> rebuildRollup(@RequestParam(name = "startDay") String startDay,
+            @RequestParam(name = "endDay") String endDay) {
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(startDay);
+            end = LocalDate.parse(endDay);
+        } catch (DateTimeParseException e) {
+            return new RespModel<>(RespEnum.PARAMS_NOT_VALID);
+        }
+        if (start.isAfter(end)) {
+            return new RespModel<>(RespEnum.PARAMS_NOT_VALID);
+        }
+        resultRollupService.rebuildInBackground(start, end);
+        return new RespModel<>(RespEnum.HANDLE_OK);
+    }
+
     @WebAspect
     @Operation(summary = "发送日报", description = "发送所有项目日报")
     @GetMapping("/sendDayReport")
@@ -1,9 +1,11 @@
 package org.cloud.sonic.controller.mapper;
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.cloud.sonic.controller.models.domain.Devices;
 
+import java.util.Collection;
 import java.util.List;
 
 @Mapper
@@ -30,4 +32,17 @@ public interface AgentDeviceMapper {
             "\tand \n" +
             "\td.ud_id not like '%:%';")
     public List<Devices> findAgentAndDevice();
+
+    /**
+     * 按 udId 查询设备与所属 agent，不过滤状态，用于增量核对连接
+     */
+    @Select("<script>select " +
+            "CASE WHEN d.platform = 1 THEN 'android' WHEN d.platform = 2 THEN 'ios' END as device_platform, " +
+            "d.ud_id, d.version, d.status, a.secret_key, a.host, a.port, a.tidevice_socket " +
+            "from devices d inner join agents a on d.agent_id = a.id " +
+            "where d.ud_id in <foreach collection='udIds' item='u' open='(' separator=',' close=')'>#{u}</foreach></script>")
+    List<Devices> findAgentAndDeviceByUdIds(@Param("udIds") Collection<String> udIds);
+
+    @Select("select d.ud_id from devices d where d.agent_id = #{agentId}")
+    List<String> findUdIdsByAgentId(@Param("agentId") int agentId);
 }
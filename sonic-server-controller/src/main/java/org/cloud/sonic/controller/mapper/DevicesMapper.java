@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.cloud.sonic.controller.models.domain.Devices;
 
 import java.util.List;
@@ -28,4 +29,11 @@ public interface DevicesMapper extends BaseMapper<Devices> {
             "where tsd.test_suites_id = #{TestSuitesId} " +
             "order by tsd.sort asc")
     List<Devices> listByTestSuitesId(@Param("TestSuitesId") int TestSuitesId);
+
+    @Update("<script>update devices set " +
+            "temperature = case id <foreach collection='list' item='i'>when #{i.id} then #{i.temperature} </foreach>end, " +
+            "level = case id <foreach collection='list' item='i'>when #{i.id} then #{i.level} </foreach>end, " +
+            "voltage = case id <foreach collection='list' item='i'>when #{i.id} then #{i.voltage} </foreach>end " +
+            "where id in <foreach collection='list' item='i' open='(' separator=',' close=')'>#{i.id}</foreach></script>")
+    int updateBatteryBatch(@Param("list") List<Devices> list);
 }
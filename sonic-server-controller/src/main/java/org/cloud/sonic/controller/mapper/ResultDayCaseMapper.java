@@ -0,0 +1,59 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.mapper;
+
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.*;
+import org.cloud.sonic.controller.models.domain.ResultDayCase;
+
+import java.util.List;
+
+/**
+ * case_id 按天累计的执行耗时，耗时口径与原先按结果、用例分组取步骤首尾时间差一致
+ */
+@Mapper
+public interface ResultDayCaseMapper extends BaseMapper<ResultDayCase> {
+
+    @Insert("insert into result_day_case (project_id, stat_day, case_id, duration) " +
+            "select #{projectId}, #{day}, t.case_id, sum(t.diff) from " +
+            "(select result_id, case_id, TIMESTAMPDIFF(SECOND,min(time),max(time)) as diff from result_detail where result_id = #{resultId} and type = 'step' group by result_id,case_id)t " +
+            "group by t.case_id " +
+            "on duplicate key update duration = duration + values(duration)")
+    int addResult(@Param("projectId") int projectId,
+                  @Param("day") String day,
+                  @Param("resultId") int resultId);
+
+    @Select("select case_id, sum(duration) as total from result_day_case " +
+            "where project_id = #{projectId} and stat_day >= #{startDay} and stat_day <= #{endDay} " +
+            "group by case_id order by total desc limit 5")
+    List<JSONObject> findTop(@Param("startDay") String startDay,
+                             @Param("endDay") String endDay,
+                             @Param("projectId") int projectId);
+
+    @Delete("delete from result_day_case where stat_day >= #{startDay} and stat_day <= #{endDay}")
+    int deleteByDay(@Param("startDay") String startDay, @Param("endDay") String endDay);
+
+    @Insert("insert into result_day_case (project_id, stat_day, case_id, duration) " +
+            "select r.project_id, DATE(r.end_time), t.case_id, sum(t.diff) from results r join " +
+            "(select result_id, case_id, TIMESTAMPDIFF(SECOND,min(time),max(time)) as diff from result_detail where result_id in " +
+            "(select id from results where finished = 1 and end_time >= #{startDay} and end_time < DATE_ADD(#{endDay}, INTERVAL 1 DAY)) " +
+            "and type = 'step' group by result_id,case_id)t on t.result_id = r.id " +
+            "group by r.project_id, DATE(r.end_time), t.case_id")
+    int rebuild(@Param("startDay") String startDay, @Param("endDay") String endDay);
+}
@@ -0,0 +1,60 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.mapper;
+
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.*;
+import org.cloud.sonic.controller.models.domain.ResultDayStat;
+
+import java.util.List;
+
+/**
+ * 测试结果按天统计，日期参数均为 yyyy-MM-dd，区间两端都包含
+ */
+@Mapper
+public interface ResultDayStatMapper extends BaseMapper<ResultDayStat> {
+
+    @Insert("insert into result_day_stat (project_id, stat_day, pass_count, warn_count, fail_count) " +
+            "values (#{projectId}, #{day}, #{pass}, #{warn}, #{fail}) " +
+            "on duplicate key update pass_count = pass_count + values(pass_count), " +
+            "warn_count = warn_count + values(warn_count), fail_count = fail_count + values(fail_count)")
+    int addCount(@Param("projectId") int projectId,
+                 @Param("day") String day,
+                 @Param("pass") int pass,
+                 @Param("warn") int warn,
+                 @Param("fail") int fail);
+
+    @Select("select DATE_FORMAT(stat_day,'%Y-%m-%d') as date, pass_count, warn_count, fail_count from result_day_stat " +
+            "where project_id = #{projectId} and stat_day >= #{startDay} and stat_day <= #{endDay} order by stat_day")
+    List<JSONObject> findByDay(@Param("startDay") String startDay,
+                               @Param("endDay") String endDay,
+                               @Param("projectId") int projectId);
+
+    @Delete("delete from result_day_stat where stat_day >= #{startDay} and stat_day <= #{endDay}")
+    int deleteByDay(@Param("startDay") String startDay, @Param("endDay") String endDay);
+
+    @Insert("insert into result_day_stat (project_id, stat_day, pass_count, warn_count, fail_count) " +
+            "select project_id, DATE(end_time), sum(status = 1), sum(status = 2), sum(status = 3) from results " +
+            "where finished = 1 and end_time >= #{startDay} and end_time < DATE_ADD(#{endDay}, INTERVAL 1 DAY) " +
+            "group by project_id, DATE(end_time)")
+    int rebuild(@Param("startDay") String startDay, @Param("endDay") String endDay);
+
+    @Select("select DATE_FORMAT(min(end_time),'%Y-%m-%d') from results where finished = 1")
+    String findFirstDay();
+}
@@ -2,6 +2,8 @@ package org.cloud.sonic.controller.mapper;
 
 import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -29,19 +31,14 @@ public interface ResultDetailMapper extends BaseMapper<ResultDetail> {
             " on t1.device_id = t2.device_id and t1.case_id = t2.case_id")
     List<JSONObject> findStatusByResultIdGroupByCaseId(@Param("resultId") int resultId);
 
-    @Select("select t.case_id,sum(t.diff) as total from (select case_id,result_id,TIMESTAMPDIFF(SECOND,min(time),max(time)) as diff " +
-            "from result_detail where result_id in " +
-            "(select id from results where end_time > #{startTime} and end_time <= #{endTime} and project_id=#{projectId}) " +
-            "and type='step' group by result_id,case_id)t group by t.case_id order by total desc limit 5")
-    List<JSONObject> findTopCases(@Param("startTime") String startTime,
-                                  @Param("endTime") String endTime,
-                                  @Param("projectId") int projectId);
+    @Insert("<script>insert into result_detail (case_id, des, device_id, log, result_id, status, time, type) values " +
+            "<foreach collection='list' item='i' separator=','>" +
+            "(#{i.caseId}, IFNULL(#{i.des}, ''), #{i.deviceId}, #{i.log}, #{i.resultId}, #{i.status}, #{i.time}, IFNULL(#{i.type}, ''))" +
+            "</foreach></script>")
+    int insertBatch(@Param("list") List<ResultDetail> list);
 
-    @Select("select t.device_id,sum(t.diff) as total from (select device_id,case_id,result_id,TIMESTAMPDIFF(SECOND,min(time),max(time)) as diff " +
-            "from result_detail where result_id in " +
-            "(select id from results where end_time > #{startTime} and end_time <= #{endTime} and project_id = #{projectId}) " +
-            "and type='step' group by result_id,case_id,device_id)t group by t.device_id order by total desc limit 5")
-    List<JSONObject> findTopDevices(@Param("startTime") String startTime,
-                                    @Param("endTime") String endTime,
-                                    @Param("projectId") int projectId);
+    @Delete("<script>delete from result_detail where result_id in " +
+            "<foreach collection='resultIds' item='id' open='(' separator=',' close=')'>#{id}</foreach> " +
+            "limit #{limit}</script>")
+    int deleteByResultIds(@Param("resultIds") List<Integer> resultIds, @Param("limit") int limit);
 }
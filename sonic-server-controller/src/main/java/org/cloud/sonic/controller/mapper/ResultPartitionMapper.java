@@ -0,0 +1,76 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.mapper;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * results / result_detail 的分区维护，表名、列名和分区名只由程序内部传入
+ */
+@Mapper
+public interface ResultPartitionMapper {
+
+    /**
+     * @return 按顺序返回 name、bound，未分区的表返回空列表
+     */
+    @Select("select partition_name as name, partition_description as bound from information_schema.partitions " +
+            "where table_schema = database() and table_name = #{table} and partition_name is not null " +
+            "order by partition_ordinal_position")
+    List<JSONObject> findPartitions(@Param("table") String table);
+
+    @Select("select ifnull(max(id), 0) from ${table}")
+    long findMaxId(@Param("table") String table);
+
+    @Select("select count(*) from ${table} where ${column} >= #{since}")
+    long countSince(@Param("table") String table, @Param("column") String column, @Param("since") Date since);
+
+    @Select("select max(${column}) from ${table} partition (${name})")
+    Date findMaxTime(@Param("table") String table, @Param("column") String column, @Param("name") String name);
+
+    /**
+     * MySQL 命名锁，与 release 必须在同一个连接上执行
+     *
+     * @return 1 表示获得锁
+     */
+    @Select("select get_lock(#{name}, #{timeout})")
+    Integer getLock(@Param("name") String name, @Param("timeout") int timeout);
+
+    @Select("select release_lock(#{name})")
+    Integer releaseLock(@Param("name") String name);
+
+    @Update("alter table ${table} partition by range (id) (" +
+            "partition ${initName} values less than (${initBound}), " +
+            "partition ${name} values less than (${bound}), " +
+            "partition pmax values less than maxvalue)")
+    void partition(@Param("table") String table,
+                   @Param("initName") String initName,
+                   @Param("initBound") long initBound,
+                   @Param("name") String name,
+                   @Param("bound") long bound);
+
+    @Update("alter table ${table} reorganize partition pmax into " +
+            "(partition ${name} values less than (${bound}), partition pmax values less than maxvalue)")
+    void split(@Param("table") String table, @Param("name") String name, @Param("bound") long bound);
+
+    @Update("alter table ${table} drop partition ${names}")
+    void drop(@Param("table") String table, @Param("names") String names);
+}
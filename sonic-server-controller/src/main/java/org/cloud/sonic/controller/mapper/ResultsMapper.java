@@ -1,12 +1,13 @@
 package org.cloud.sonic.controller.mapper;
 
-import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.cloud.sonic.controller.models.domain.Results;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -18,25 +19,56 @@ import java.util.List;
 @Mapper
 public interface ResultsMapper extends BaseMapper<Results> {
 
-    @Select("select t2.date,round(IFNULL((t1.count/t2.count),0)*100,2) as rate from " +
-            "(select DATE_FORMAT(end_time,'%Y-%m-%d') as date,count(status) as count from results where end_time > #{startTime} and end_time <= #{endTime} and project_id=#{projectId} and status=1 " +
-            "group by status,DATE_FORMAT(end_time,'%Y-%m-%d'))t1 " +
-            "right join" +
-            "(select DATE_FORMAT(end_time,'%Y-%m-%d') as date,count(status) as count from results where end_time > #{startTime} and end_time <= #{endTime} and project_id=#{projectId} " +
-            "group by DATE_FORMAT(end_time,'%Y-%m-%d'))t2 " +
-            "on t1.date = t2.date")
-    List<JSONObject> findDayPassRate(@Param("startTime") String startTime,
-                                     @Param("endTime") String endTime,
-                                     @Param("projectId") int projectId);
-
-    @Select("select status,count(*) as total from results where end_time > #{startTime} and end_time<= #{endTime} and project_id=#{projectId} group by status")
-    List<JSONObject> findDayStatus(@Param("startTime") String startTime,
-                                   @Param("endTime") String endTime,
-                                   @Param("projectId") int projectId);
-
-    @Select("select count(*) as total from results where end_time > #{startTime} and end_time <= #{endTime} and project_id=#{projectId}")
-    int findRunCount(@Param("startTime") String startTime,
-                     @Param("endTime") String endTime,
-                     @Param("projectId") int projectId);
+    @Update("update results set receive_msg_count = receive_msg_count + 1 where id = #{id}")
+    int addReceiveCount(@Param("id") int id);
+
+    @Update("update results set send_msg_count = send_msg_count - 1 where id = #{id}")
+    int subSendCount(@Param("id") int id);
+
+    @Update("update results set status = #{status}, strike = #{strike}, send_msg_count = #{sendMsgCount} where id = #{id}")
+    int forceStop(@Param("id") int id,
+                  @Param("status") int status,
+                  @Param("strike") String strike,
+                  @Param("sendMsgCount") int sendMsgCount);
+
+    /**
+     * 收发数量一致时标记结束，只有一个调用方会得到 1
+     */
+    @Update("update results set finished = 1, end_time = #{endTime}, " +
+            "status = case when status > #{status} then status else #{status} end " +
+            "where id = #{id} and finished = 0 and receive_msg_count >= send_msg_count")
+    int claimFinish(@Param("id") int id,
+                    @Param("status") int status,
+                    @Param("endTime") Date endTime);
+
+    /**
+     * 升级前已发过结束通知的结果（收发数量已一致）补上结束标记，只在升级后执行一次
+     */
+    @Update("update results set finished = 1 where finished = 0 and receive_msg_count >= send_msg_count")
+    int markReportedFinished();
+
+    /**
+     * 升级时仍在执行的结果按已有的状态明细补齐通过/警告/失败计数，只在升级后执行一次
+     */
+    @Update("update results r set " +
+            "pass_count = (select count(*) from result_detail d where d.result_id = r.id and d.type = 'status' " +
+            "and (d.status is null or d.status not in (2, 3))), " +
+            "warn_count = (select count(*) from result_detail d where d.result_id = r.id and d.type = 'status' and d.status = 2), " +
+            "fail_count = (select count(*) from result_detail d where d.result_id = r.id and d.type = 'status' and d.status = 3) " +
+            "where r.finished = 0")
+    int seedStatusCount();
+
+    @Update("update results set pass_count = pass_count + #{pass}, warn_count = warn_count + #{warn}, " +
+            "fail_count = fail_count + #{fail} where id = #{id}")
+    int addStatusCount(@Param("id") int id,
+                       @Param("pass") int pass,
+                       @Param("warn") int warn,
+                       @Param("fail") int fail);
+
+    /**
+     * id 与创建时间同序，按主键顺序扫描，过期的行都在最前面
+     */
+    @Select("select id from results where create_time < #{cutoff} order by id limit #{limit}")
+    List<Integer> findIdsBefore(@Param("cutoff") Date cutoff, @Param("limit") int limit);
 
 }
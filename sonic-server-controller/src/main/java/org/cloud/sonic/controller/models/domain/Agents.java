@@ -151,4 +151,8 @@ public class Agents implements Serializable, TypeConverter<Agents, AgentsDTO> {
 
     @TableField
     private String tideviceSocket;
+
+    @TableField(updateStrategy = FieldStrategy.NEVER)
+    @Column(value = "controller_instance", comment = "持有该agent连接的controller实例id", defaultValue = "")
+    private String controllerInstance;
 }
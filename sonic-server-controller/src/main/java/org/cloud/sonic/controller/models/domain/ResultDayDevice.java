@@ -0,0 +1,71 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.models.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.gitee.sunchenbin.mybatis.actable.annotation.*;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlCharsetConstant;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlEngineConstant;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlTypeConstant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 设备按天耗时统计表
+ */
+@Data
+@Accessors(chain = true)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("result_day_device")
+@TableComment("设备按天耗时统计表")
+@TableCharset(MySqlCharsetConstant.DEFAULT)
+@TableEngine(MySqlEngineConstant.InnoDB)
+public class ResultDayDevice implements Serializable {
+
+    @TableId(value = "id", type = IdType.AUTO)
+    @IsAutoIncrement
+    private Integer id;
+
+    @TableField
+    @Column(value = "project_id", isNull = false, comment = "所属项目id")
+    @Unique(value = "UNI_PROJECT_ID_STAT_DAY_DEVICE_ID", columns = {"project_id", "stat_day", "device_id"})
+    private Integer projectId;
+
+    @TableField
+    @Column(value = "stat_day", type = MySqlTypeConstant.DATE, isNull = false, comment = "结果结束日期")
+    private Date statDay;
+
+    @TableField
+    @Column(value = "device_id", isNull = false, comment = "设备id")
+    private Integer deviceId;
+
+    @TableField
+    @Column(type = MySqlTypeConstant.BIGINT, isNull = false, defaultValue = "0", comment = "当天累计耗时(秒)")
+    private Long duration;
+}
@@ -0,0 +1,75 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.models.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.gitee.sunchenbin.mybatis.actable.annotation.*;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlCharsetConstant;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlEngineConstant;
+import com.gitee.sunchenbin.mybatis.actable.constants.MySqlTypeConstant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 测试结果按天统计表
+ */
+@Data
+@Accessors(chain = true)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("result_day_stat")
+@TableComment("测试结果按天统计表")
+@TableCharset(MySqlCharsetConstant.DEFAULT)
+@TableEngine(MySqlEngineConstant.InnoDB)
+public class ResultDayStat implements Serializable {
+
+    @TableId(value = "id", type = IdType.AUTO)
+    @IsAutoIncrement
+    private Integer id;
+
+    @TableField
+    @Column(value = "project_id", isNull = false, comment = "所属项目id")
+    @Unique(value = "UNI_PROJECT_ID_STAT_DAY", columns = {"project_id", "stat_day"})
+    private Integer projectId;
+
+    @TableField
+    @Column(value = "stat_day", type = MySqlTypeConstant.DATE, isNull = false, comment = "结果结束日期")
+    private Date statDay;
+
+    @TableField
+    @Column(value = "pass_count", isNull = false, defaultValue = "0", comment = "通过的结果数")
+    private Integer passCount;
+
+    @TableField
+    @Column(value = "warn_count", isNull = false, defaultValue = "0", comment = "警告的结果数")
+    private Integer warnCount;
+
+    @TableField
+    @Column(value = "fail_count", isNull = false, defaultValue = "0", comment = "失败的结果数")
+    private Integer failCount;
+}
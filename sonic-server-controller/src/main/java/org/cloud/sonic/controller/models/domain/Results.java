@@ -55,11 +55,14 @@ public class Results implements Serializable, TypeConverter<Results, ResultsDTO>
     @Index(value = "IDX_PROJECT_ID", columns = {"project_id"})
     private Integer projectId;
 
-    @TableField
+    /**
+     * 收发计数与结束标记只通过 ResultsMapper 的定向 update 修改，整行更新时不写入
+     */
+    @TableField(value = "receive_msg_count", updateStrategy = FieldStrategy.NEVER)
     @Column(value = "receive_msg_count", isNull = false, comment = "接受消息数量")
     private Integer receiveMsgCount;
 
-    @TableField
+    @TableField(value = "send_msg_count", updateStrategy = FieldStrategy.NEVER)
     @Column(value = "send_msg_count", isNull = false, comment = "发送消息数量")
     private Integer sendMsgCount;
 
@@ -67,6 +70,25 @@ public class Results implements Serializable, TypeConverter<Results, ResultsDTO>
     @Column(isNull = false, comment = "结果状态")
     private Integer status;
 
+    /**
+     * 以下计数只通过 {@link org.cloud.sonic.controller.mapper.ResultsMapper#addStatusCount} 原子增减，整行更新时不写入
+     */
+    @TableField(value = "pass_count", updateStrategy = FieldStrategy.NEVER)
+    @Column(value = "pass_count", isNull = false, defaultValue = "0", comment = "通过的用例设备数")
+    private Integer passCount;
+
+    @TableField(value = "warn_count", updateStrategy = FieldStrategy.NEVER)
+    @Column(value = "warn_count", isNull = false, defaultValue = "0", comment = "警告的用例设备数")
+    private Integer warnCount;
+
+    @TableField(value = "fail_count", updateStrategy = FieldStrategy.NEVER)
+    @Column(value = "fail_count", isNull = false, defaultValue = "0", comment = "失败的用例设备数")
+    private Integer failCount;
+
+    @TableField(updateStrategy = FieldStrategy.NEVER)
+    @Column(isNull = false, defaultValue = "0", comment = "是否已发送结束通知，由 ResultsMapper#claimFinish 原子置位")
+    private Integer finished;
+
     @TableField
     @Column(comment = "触发者", defaultValue = "")
     private String strike;
@@ -45,6 +45,15 @@ public class ResultsDTO implements Serializable, TypeConverter<ResultsDTO, Resul
     @Schema(description = "状态", example = "WARN")
     Integer status;
 
+    @Schema(description = "通过数", example = "1")
+    Integer passCount;
+
+    @Schema(description = "警告数", example = "0")
+    Integer warnCount;
+
+    @Schema(description = "失败数", example = "0")
+    Integer failCount;
+
     @Schema(description = "创建时间", example = "2021-08-15 11:36:00")
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss", timezone = "GMT+8")
     Date createTime;
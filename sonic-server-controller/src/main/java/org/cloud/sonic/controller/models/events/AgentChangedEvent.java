@@ -0,0 +1,34 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.models.events;
+
+/**
+ * agent 上线（agentInfo）或下线，其下设备的连接需要重新核对
+ */
+public class AgentChangedEvent {
+
+    private final int agentId;
+
+    public AgentChangedEvent(int agentId) {
+        this.agentId = agentId;
+    }
+
+    public int getAgentId() {
+        return agentId;
+    }
+}
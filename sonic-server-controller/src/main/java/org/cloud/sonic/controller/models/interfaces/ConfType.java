@@ -6,4 +6,8 @@ public interface ConfType {
     String REMOTE_DEBUG_TIMEOUT = "remote-debug-timeout";
 
     String IDEL_DEBUG_TIMEOUT = "idle-debug-timeout";
+
+    String RESULT_FINISHED_MIGRATED = "result-finished-migrated";
+
+    String RESULT_COUNT_SEEDED = "result-count-seeded";
 }
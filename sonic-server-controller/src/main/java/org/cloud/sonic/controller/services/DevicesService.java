@@ -28,6 +28,7 @@ import org.cloud.sonic.controller.models.http.UpdateDeviceImg;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 设备管理业务逻辑服务接口
@@ -80,6 +81,13 @@ public interface DevicesService extends IService<Devices> {
 
     RespModel occupy(OccupyParams occupyParams, String token);
 
+    /**
+     * 占用设备并等待 agent 确认端口已开启
+     *
+     * @param timeoutMillis 等待超时，小于等于 0 时使用 sonic.transport.reply.timeout-ms
+     */
+    CompletableFuture<RespModel> occupyAndWait(OccupyParams occupyParams, String token, long timeoutMillis);
+
     RespModel release(String udId, String token);
 
     boolean saveDetail(DeviceDetailChange deviceDetailChange);
@@ -100,6 +108,13 @@ public interface DevicesService extends IService<Devices> {
 
     Devices findByAgentIdAndUdId(int agentId, String udId);
 
+    /**
+     * 查找设备 id，结果短时间缓存，供高频的上报消息使用
+     *
+     * @return 设备 id，不存在时为 0
+     */
+    int findIdByAgentIdAndUdId(int agentId, String udId);
+
     Devices findByUdId(String udId);
 
     JSONObject getFilterOption();
@@ -116,6 +131,17 @@ public interface DevicesService extends IService<Devices> {
 
     Integer findTemper();
 
+    /**
+     * 设备的电池时间序列，数据只保存在该设备 agent 所连接的实例内存中，
+     * 请求落到其他实例时返回空列表
+     */
+    List<JSONObject> findTelemetry(int id, long startTime, long endTime);
+
+    /**
+     * 本实例所连接设备的聚合序列，不包含其他实例的设备
+     */
+    List<JSONObject> findFleetTelemetry(long startTime, long endTime);
+
     RespModel<String> delete(int id);
 
 }
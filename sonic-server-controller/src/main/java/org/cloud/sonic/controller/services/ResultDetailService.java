@@ -22,11 +22,14 @@ public interface ResultDetailService extends IService<ResultDetail> {
 
     void deleteByResultId(int resultId);
 
+    /**
+     * 分多条 delete 删除，每条最多 limit 行，避免大事务
+     *
+     * @return 删除的行数
+     */
+    long deleteByResultIds(List<Integer> resultIds, int limit);
+
     List<JSONObject> findTimeByResultIdGroupByCaseId(int resultId);
 
     List<JSONObject> findStatusByResultIdGroupByCaseId(int resultId);
-
-    List<JSONObject> findTopCases(String startTime, String endTime, int projectId);
-
-    List<JSONObject> findTopDevices(String startTime, String endTime, int projectId);
 }
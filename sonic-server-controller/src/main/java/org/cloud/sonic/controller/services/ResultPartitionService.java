@@ -0,0 +1,38 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.services;
+
+import java.util.Date;
+
+/**
+ * 测试结果分区维护，sonic.result.partition.enable 关闭时不做任何事
+ */
+public interface ResultPartitionService {
+
+    /**
+     * 当前分区剩余预留不足时，从空的 pmax 中切出一个新分区
+     */
+    void split();
+
+    /**
+     * 删除所有行都早于 cutoff 的分区
+     *
+     * @return 删除的分区数
+     */
+    int dropBefore(Date cutoff);
+}
@@ -0,0 +1,39 @@
+package org.cloud.sonic.controller.services;
+
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.extension.service.IService;
+import org.cloud.sonic.controller.models.domain.ResultDayStat;
+import org.cloud.sonic.controller.models.domain.Results;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 测试结果按天汇总，报表与通知只读汇总表；日期参数均为 yyyy-MM-dd，区间两端都包含
+ */
+public interface ResultRollupService extends IService<ResultDayStat> {
+
+    /**
+     * 结果结束时计入其结束当天的汇总
+     */
+    void record(Results results);
+
+    /**
+     * @return 每天一行，包含 date、pass_count、warn_count、fail_count
+     */
+    List<JSONObject> findDayStat(String startDay, String endDay, int projectId);
+
+    List<JSONObject> findTopCases(String startDay, String endDay, int projectId);
+
+    List<JSONObject> findTopDevices(String startDay, String endDay, int projectId);
+
+    /**
+     * 按原始结果重算区间内的汇总，只统计已结束（finished = 1）的结果，与 record 口径一致
+     */
+    void rebuild(String startDay, String endDay);
+
+    /**
+     * 在后台按 30 天一段依次重算，每段一个事务，立即返回
+     */
+    void rebuildInBackground(LocalDate startDay, LocalDate endDay);
+}
@@ -26,10 +26,37 @@ public interface ResultsService extends IService<Results> {
 
     void suiteResult(int id);
 
+    /**
+     * 用例在设备上的状态被替换时调整结果的通过、警告、失败计数
+     *
+     * @param removed 被替换掉的旧状态
+     * @param added   新状态
+     */
+    void countStatus(int id, List<Integer> removed, Integer added);
+
     JSONArray findCaseStatus(int id);
 
     void subResultCount(int id);
 
+    /**
+     * 强制停止：只更新状态、触发者与应发消息数，不覆盖接收计数与结束标记
+     */
+    void forceStop(int id, String strike, int sendMsgCount);
+
+    /**
+     * 为 finished 字段上线前已结束的结果补上结束标记，避免迟到的状态再次触发结束通知
+     *
+     * @return 更新的行数
+     */
+    int markReportedFinished();
+
+    /**
+     * 未结束的结果按状态明细重算通过/警告/失败计数
+     *
+     * @return 更新的行数
+     */
+    int seedStatusCount();
+
     JSONObject chart(String startTime, String endTime, int projectId);
 
     void sendDayReport();
@@ -23,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.cloud.sonic.controller.mapper.AgentsMapper;
 import org.cloud.sonic.controller.models.domain.Agents;
 import org.cloud.sonic.controller.models.domain.Devices;
+import org.cloud.sonic.controller.models.events.AgentChangedEvent;
 import org.cloud.sonic.controller.models.interfaces.AgentStatus;
 import org.cloud.sonic.controller.models.interfaces.DeviceStatus;
 import org.cloud.sonic.controller.services.AgentsService;
@@ -30,6 +31,7 @@ import org.cloud.sonic.controller.services.DevicesService;
 import org.cloud.sonic.controller.services.impl.base.SonicServiceImpl;
 import org.cloud.sonic.controller.transport.TransportWorker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -46,6 +48,8 @@ public class AgentsServiceImpl extends SonicServiceImpl<AgentsMapper, Agents> im
     private AlertRobotsServiceImpl alertRobotsService;
     @Autowired
     private AgentsMapper agentsMapper;
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
 
     @Override
     public List<Agents> findAgents() {
@@ -116,6 +120,7 @@ public class AgentsServiceImpl extends SonicServiceImpl<AgentsMapper, Agents> im
                     oldAgent.setHasHub(jsonObject.getInteger("hasHub"));
                 }
                 save(oldAgent);
+                applicationEventPublisher.publishEvent(new AgentChangedEvent(oldAgent.getId()));
             }
         }
     }
@@ -143,6 +148,7 @@ public class AgentsServiceImpl extends SonicServiceImpl<AgentsMapper, Agents> im
                     .setStatus(AgentStatus.OFFLINE);
             updateAgentsByLockVersion(agentOffLine);
             resetDevice(agentOffLine.getId());
+            applicationEventPublisher.publishEvent(new AgentChangedEvent(id));
             return true;
         } else {
             return false;
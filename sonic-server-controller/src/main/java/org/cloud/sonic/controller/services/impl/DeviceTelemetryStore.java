@@ -0,0 +1,221 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.services.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.DevicesMapper;
+import org.cloud.sonic.controller.models.domain.Devices;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 设备电池遥测数据（温度、电量、电压）
+ * <p>
+ * 每台设备一个固定大小的环形缓冲区，按 resolution-ms 分桶，保留 retention-ms 内的数据；
+ * 最新值先记在内存里，由定时任务用一条批量 UPDATE 写回 devices 表。
+ * <p>
+ * 电池数据只会上报到 agent 所连接的实例，序列只包含本实例的设备；跨实例的统计应查 devices 表。
+ */
+@Slf4j
+@Component
+public class DeviceTelemetryStore {
+
+    private static final int FLUSH_CHUNK = 500;
+
+    @Autowired
+    private DevicesMapper devicesMapper;
+
+    @Value("${sonic.telemetry.resolution-ms:60000}")
+    private long resolutionMillis;
+
+    @Value("${sonic.telemetry.retention-ms:86400000}")
+    private long retentionMillis;
+
+    private final Map<Integer, Ring> rings = new ConcurrentHashMap<>();
+    private final Map<Integer, Devices> dirty = new ConcurrentHashMap<>();
+
+    public void record(int deviceId, int temperature, int level, int voltage) {
+        long now = System.currentTimeMillis();
+        rings.computeIfAbsent(deviceId, k -> new Ring((int) Math.max(1, retentionMillis / resolutionMillis)))
+                .record(now / resolutionMillis, temperature, level, voltage);
+        dirty.put(deviceId, new Devices().setId(deviceId).setTemperature(temperature).setLevel(level).setVoltage(voltage));
+    }
+
+    /**
+     * 单台设备的时间序列
+     */
+    public List<JSONObject> series(int deviceId, long startTime, long endTime) {
+        Ring ring = rings.get(deviceId);
+        List<JSONObject> result = new ArrayList<>();
+        if (ring == null) {
+            return result;
+        }
+        long from = startTime / resolutionMillis;
+        long to = endTime / resolutionMillis;
+        synchronized (ring) {
+            for (long bucket = Math.max(from, to - ring.size + 1); bucket <= to; bucket++) {
+                int slot = ring.slot(bucket);
+                if (ring.buckets[slot] != bucket) {
+                    continue;
+                }
+                JSONObject point = new JSONObject();
+                point.put("time", bucket * resolutionMillis);
+                point.put("tem", ring.temperatures[slot]);
+                point.put("level", ring.levels[slot]);
+                point.put("vol", ring.voltages[slot]);
+                result.add(point);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 全部设备按时间桶聚合的序列：平均/最高温度、平均电量与上报设备数
+     */
+    public List<JSONObject> fleetSeries(long startTime, long endTime) {
+        long from = startTime / resolutionMillis;
+        long to = endTime / resolutionMillis;
+        int length = (int) Math.max(0, Math.min(to - from + 1, retentionMillis / resolutionMillis));
+        from = to - length + 1;
+        long[] temperatureSum = new long[length];
+        int[] temperatureMax = new int[length];
+        long[] levelSum = new long[length];
+        int[] count = new int[length];
+        for (Ring ring : rings.values()) {
+            synchronized (ring) {
+                for (int i = 0; i < length; i++) {
+                    long bucket = from + i;
+                    int slot = ring.slot(bucket);
+                    if (ring.buckets[slot] != bucket) {
+                        continue;
+                    }
+                    temperatureSum[i] += ring.temperatures[slot];
+                    temperatureMax[i] = Math.max(temperatureMax[i], ring.temperatures[slot]);
+                    levelSum[i] += ring.levels[slot];
+                    count[i]++;
+                }
+            }
+        }
+        List<JSONObject> result = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            if (count[i] == 0) {
+                continue;
+            }
+            JSONObject point = new JSONObject();
+            point.put("time", (from + i) * resolutionMillis);
+            point.put("avgTem", temperatureSum[i] / count[i]);
+            point.put("maxTem", temperatureMax[i]);
+            point.put("avgLevel", levelSum[i] / count[i]);
+            point.put("devices", count[i]);
+            result.add(point);
+        }
+        return result;
+    }
+
+    public void remove(int deviceId) {
+        rings.remove(deviceId);
+        dirty.remove(deviceId);
+    }
+
+    /**
+     * 把各设备最新的电池数据批量写回 devices 表
+     */
+    @Scheduled(fixedDelayString = "${sonic.telemetry.flush-ms:60000}")
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Devices> batch = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Devices>> iterator = dirty.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Devices> entry = iterator.next();
+            // 只移除取出时的值，期间被覆盖的新值留到下一轮
+            if (dirty.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry.getValue());
+            }
+            if (batch.size() >= FLUSH_CHUNK) {
+                write(batch);
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<Devices> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            devicesMapper.updateBatteryBatch(batch);
+        } catch (Exception e) {
+            log.error("Flush {} devices battery failed.", batch.size(), e);
+            // 放回去等下一轮，期间已有更新值的设备以新值为准
+            for (Devices devices : batch) {
+                dirty.putIfAbsent(devices.getId(), devices);
+            }
+        }
+        batch.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static final class Ring {
+        private final int size;
+        private final long[] buckets;
+        private final int[] temperatures;
+        private final int[] levels;
+        private final int[] voltages;
+
+        private Ring(int size) {
+            this.size = size;
+            buckets = new long[size];
+            temperatures = new int[size];
+            levels = new int[size];
+            voltages = new int[size];
+            Arrays.fill(buckets, -1);
+        }
+
+        private int slot(long bucket) {
+            return (int) Math.floorMod(bucket, (long) size);
+        }
+
+        /**
+         * 同一时间桶内以最后一次上报为准
+         */
+        private synchronized void record(long bucket, int temperature, int level, int voltage) {
+            int slot = slot(bucket);
+            buckets[slot] = bucket;
+            temperatures[slot] = temperature;
+            levels[slot] = level;
+            voltages[slot] = voltage;
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package org.cloud.sonic.controller.services.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.conditions.query.LambdaQueryChainWrapper;
@@ -31,6 +32,7 @@ import org.cloud.sonic.controller.models.domain.Agents;
 import org.cloud.sonic.controller.models.domain.Devices;
 import org.cloud.sonic.controller.models.domain.TestSuitesDevices;
 import org.cloud.sonic.controller.models.domain.Users;
+import org.cloud.sonic.controller.models.events.DeviceChangedEvent;
 import org.cloud.sonic.controller.models.http.DeviceDetailChange;
 import org.cloud.sonic.controller.models.http.OccupyParams;
 import org.cloud.sonic.controller.models.http.UpdateDeviceImg;
@@ -42,6 +44,7 @@ import org.cloud.sonic.controller.services.UsersService;
 import org.cloud.sonic.controller.services.impl.base.SonicServiceImpl;
 import org.cloud.sonic.controller.transport.TransportWorker;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.ObjectUtils;
@@ -52,7 +55,12 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 import static org.cloud.sonic.common.http.RespEnum.DELETE_OK;
 
@@ -73,51 +81,111 @@ public class DevicesServiceImpl extends SonicServiceImpl<DevicesMapper, Devices>
     private TestSuitesDevicesMapper testSuitesDevicesMapper;
     @Autowired
     private AgentsService agentsService;
+    @Autowired
+    private DeviceTelemetryStore deviceTelemetryStore;
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private static final long DEVICE_ID_CACHE_MILLIS = 60000L;
+    private final Map<String, long[]> deviceIdCache = new ConcurrentHashMap<>();
 
     @Override
     public RespModel occupy(OccupyParams occupyParams, String token) {
         Devices devices = findByUdId(occupyParams.getUdId());
-        if (devices != null) {
-            if (devices.getStatus().equals(DeviceStatus.ONLINE)) {
-                Agents agents = agentsService.findById(devices.getAgentId());
-                if (agents != null) {
-                    JSONObject jsonObject = (JSONObject) JSONObject.toJSON(occupyParams);
-                    jsonObject.put("msg", "occupy");
-                    jsonObject.put("token", token);
-                    jsonObject.put("platform", devices.getPlatform());
-                    TransportWorker.send(agents.getId(), jsonObject);
-                    JSONObject result = new JSONObject();
-                    switch (devices.getPlatform()) {
-                        case PlatformType.ANDROID -> {
-                            if (occupyParams.getSasRemotePort() != 0) {
-                                result.put("sas", String.format("adb connect %s:%d", agents.getHost(), occupyParams.getSasRemotePort()));
-                            }
-                            if (occupyParams.getUia2RemotePort() != 0) {
-                                result.put("uia2", String.format("http://%s:%d/uia/%d", agents.getHost(), agents.getPort(), occupyParams.getUia2RemotePort()));
-                            }
-                        }
-                        case PlatformType.IOS -> {
-                            if (occupyParams.getSibRemotePort() != 0) {
-                                result.put("sib", String.format("sib remote connect --host %s -p %d", agents.getHost(), occupyParams.getSibRemotePort()));
-                            }
-                            if (occupyParams.getWdaServerRemotePort() != 0) {
-                                result.put("wdaServer", String.format("http://%s:%d", agents.getHost(), occupyParams.getWdaServerRemotePort()));
-                            }
-                            if (occupyParams.getWdaMjpegRemotePort() != 0) {
-                                result.put("wdaMjpeg", String.format("http://%s:%d", agents.getHost(), occupyParams.getWdaMjpegRemotePort()));
-                            }
+        if (devices == null || !devices.getStatus().equals(DeviceStatus.ONLINE)) {
+            return new RespModel<>(RespEnum.DEVICE_NOT_FOUND);
+        }
+        Agents agents = agentsService.findById(devices.getAgentId());
+        if (agents == null) {
+            return new RespModel<>(RespEnum.ID_NOT_FOUND);
+        }
+        TransportWorker.send(agents.getId(), occupyCommand(occupyParams, token, devices));
+        return new RespModel<>(RespEnum.HANDLE_OK, occupyResult(occupyParams, devices, agents));
+    }
+
+    @Override
+    public CompletableFuture<RespModel> occupyAndWait(OccupyParams occupyParams, String token, long timeoutMillis) {
+        Devices devices = findByUdId(occupyParams.getUdId());
+        if (devices == null || !devices.getStatus().equals(DeviceStatus.ONLINE)) {
+            return CompletableFuture.completedFuture(new RespModel<>(RespEnum.DEVICE_NOT_FOUND));
+        }
+        Agents agents = agentsService.findById(devices.getAgentId());
+        if (agents == null) {
+            return CompletableFuture.completedFuture(new RespModel<>(RespEnum.ID_NOT_FOUND));
+        }
+        JSONObject result = occupyResult(occupyParams, devices, agents);
+        return TransportWorker.request(agents.getId(), occupyCommand(occupyParams, token, devices), timeoutMillis)
+                .handle((reply, e) -> {
+                    if (e != null) {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (cause instanceof TimeoutException) {
+                            // 超时仍返回地址，由调用方决定是否继续使用
+                            return new RespModel<>(RespEnum.AGENT_REPLY_TIMEOUT, result);
                         }
+                        result.put("error", cause.getMessage());
+                        return new RespModel<>(RespEnum.UNKNOWN_ERROR, result);
+                    }
+                    String error = replyError(reply);
+                    if (error != null) {
+                        result.put("error", error);
+                        return new RespModel<>(RespEnum.AGENT_REPLY_FAIL, result);
                     }
                     return new RespModel<>(RespEnum.HANDLE_OK, result);
-                } else {
-                    return new RespModel<>(RespEnum.ID_NOT_FOUND);
+                });
+    }
+
+    /**
+     * agent 应答中带 error，或 status 不是 ok 时视为失败
+     *
+     * @return 失败原因，成功时返回 null
+     */
+    private static String replyError(JSONObject reply) {
+        if (reply == null) {
+            return null;
+        }
+        String error = reply.getString("error");
+        if (error != null && !error.isBlank()) {
+            return error;
+        }
+        String status = reply.getString("status");
+        if (status != null && !"ok".equalsIgnoreCase(status)) {
+            return status;
+        }
+        return null;
+    }
+
+    private JSONObject occupyCommand(OccupyParams occupyParams, String token, Devices devices) {
+        JSONObject jsonObject = (JSONObject) JSONObject.toJSON(occupyParams);
+        jsonObject.put("msg", "occupy");
+        jsonObject.put("token", token);
+        jsonObject.put("platform", devices.getPlatform());
+        return jsonObject;
+    }
+
+    private JSONObject occupyResult(OccupyParams occupyParams, Devices devices, Agents agents) {
+        JSONObject result = new JSONObject();
+        switch (devices.getPlatform()) {
+            case PlatformType.ANDROID -> {
+                if (occupyParams.getSasRemotePort() != 0) {
+                    result.put("sas", String.format("adb connect %s:%d", agents.getHost(), occupyParams.getSasRemotePort()));
+                }
+                if (occupyParams.getUia2RemotePort() != 0) {
+                    result.put("uia2", String.format("http://%s:%d/uia/%d", agents.getHost(), agents.getPort(), occupyParams.getUia2RemotePort()));
+                }
+            }
+            case PlatformType.IOS -> {
+                if (occupyParams.getSibRemotePort() != 0) {
+                    result.put("sib", String.format("sib remote connect --host %s -p %d", agents.getHost(), occupyParams.getSibRemotePort()));
+                }
+                if (occupyParams.getWdaServerRemotePort() != 0) {
+                    result.put("wdaServer", String.format("http://%s:%d", agents.getHost(), occupyParams.getWdaServerRemotePort()));
+                }
+                if (occupyParams.getWdaMjpegRemotePort() != 0) {
+                    result.put("wdaMjpeg", String.format("http://%s:%d", agents.getHost(), occupyParams.getWdaMjpegRemotePort()));
                 }
-            } else {
-                return new RespModel<>(RespEnum.DEVICE_NOT_FOUND);
             }
-        } else {
-            return new RespModel<>(RespEnum.DEVICE_NOT_FOUND);
         }
+        return result;
     }
 
     @Override
@@ -287,6 +355,23 @@ public class DevicesServiceImpl extends SonicServiceImpl<DevicesMapper, Devices>
         }
     }
 
+    @Override
+    public int findIdByAgentIdAndUdId(int agentId, String udId) {
+        String key = agentId + ":" + udId;
+        long now = System.currentTimeMillis();
+        long[] cached = deviceIdCache.get(key);
+        if (cached != null && now - cached[1] < DEVICE_ID_CACHE_MILLIS) {
+            return (int) cached[0];
+        }
+        Devices devices = findByAgentIdAndUdId(agentId, udId);
+        if (devices == null) {
+            deviceIdCache.remove(key);
+            return 0;
+        }
+        deviceIdCache.put(key, new long[]{devices.getId(), now});
+        return devices.getId();
+    }
+
     @Override
     public Devices findByUdId(String udId) {
         List<Devices> devicesList = lambdaQuery().eq(Devices::getUdId, udId).list();
@@ -371,6 +456,7 @@ public class DevicesServiceImpl extends SonicServiceImpl<DevicesMapper, Devices>
             devices.setDeviceUrl(jsonMsg.getString("deviceUrl"));
         }
         save(devices);
+        applicationEventPublisher.publishEvent(new DeviceChangedEvent(devices.getUdId()));
     }
 
     @Override
@@ -404,26 +490,35 @@ public class DevicesServiceImpl extends SonicServiceImpl<DevicesMapper, Devices>
     @Override
     public void refreshDevicesBattery(JSONObject jsonObject) {
         int agentId = jsonObject.getInteger("agentId");
-        List<JSONObject> deviceTemList = jsonObject.getJSONArray("detail").toJavaList(JSONObject.class);
-        for (JSONObject d : deviceTemList) {
-            Devices devices = findByAgentIdAndUdId(agentId, d.getString("udId"));
-            if (devices != null) {
-                devices.setTemperature(d.getInteger("tem"));
-                devices.setLevel(d.getInteger("level"));
-                devices.setVoltage(d.getInteger("vol"));
-                save(devices);
+        JSONArray detail = jsonObject.getJSONArray("detail");
+        for (int i = 0; i < detail.size(); i++) {
+            JSONObject d = detail.getJSONObject(i);
+            int id = findIdByAgentIdAndUdId(agentId, d.getString("udId"));
+            if (id != 0) {
+                deviceTelemetryStore.record(id, d.getIntValue("tem"), d.getIntValue("level"), d.getIntValue("vol"));
             }
         }
     }
 
     @Override
     public Integer findTemper() {
+        // 每个实例只持有自己 agent 的设备，全局平均以数据库为准（最新值由 DeviceTelemetryStore 定时写回）
         OptionalDouble tempers = new LambdaQueryChainWrapper<>(devicesMapper).ne(Devices::getTemperature, 0)
                 .in(Devices::getStatus, Arrays.asList(DeviceStatus.ONLINE, DeviceStatus.DEBUGGING, DeviceStatus.TESTING))
                 .list().stream().mapToInt(Devices::getTemperature).average();
         return tempers.isPresent() ? (int) tempers.getAsDouble() : 0;
     }
 
+    @Override
+    public List<JSONObject> findTelemetry(int id, long startTime, long endTime) {
+        return deviceTelemetryStore.series(id, startTime, endTime);
+    }
+
+    @Override
+    public List<JSONObject> findFleetTelemetry(long startTime, long endTime) {
+        return deviceTelemetryStore.fleetSeries(startTime, endTime);
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public RespModel<String> delete(int id) {
@@ -433,6 +528,8 @@ public class DevicesServiceImpl extends SonicServiceImpl<DevicesMapper, Devices>
         }
         if (devices.getStatus().equals(DeviceStatus.OFFLINE) || devices.getStatus().equals(DeviceStatus.DISCONNECTED)) {
             devicesMapper.deleteById(id);
+            deviceTelemetryStore.remove(id);
+            deviceIdCache.values().removeIf(cached -> cached[0] == id);
             testSuitesDevicesMapper.delete(
                     new LambdaQueryWrapper<TestSuitesDevices>().eq(TestSuitesDevices::getDevicesId, id)
             );
@@ -23,7 +23,6 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.conditions.query.LambdaQueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.cloud.sonic.controller.mapper.ResultDetailMapper;
-import org.cloud.sonic.controller.models.domain.Devices;
 import org.cloud.sonic.controller.models.domain.ResultDetail;
 import org.cloud.sonic.controller.services.DevicesService;
 import org.cloud.sonic.controller.services.ResultDetailService;
@@ -32,6 +31,7 @@ import org.cloud.sonic.controller.services.impl.base.SonicServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -48,11 +48,11 @@ public class ResultDetailServiceImpl extends SonicServiceImpl<ResultDetailMapper
     private DevicesService devicesService;
     @Autowired
     private ResultsService resultsService;
+    @Autowired
+    private ResultDetailWriteBuffer resultDetailWriteBuffer;
 
     @Override
     public void saveByTransport(JSONObject jsonMsg) {
-        Devices resultDevice = devicesService.findByAgentIdAndUdId(jsonMsg.getInteger("agentId")
-                , jsonMsg.getString("udId"));
         ResultDetail resultInfo = new ResultDetail();
         resultInfo.setType(jsonMsg.getString("msg"));
         resultInfo.setLog(jsonMsg.getString("log"));
@@ -61,21 +61,35 @@ public class ResultDetailServiceImpl extends SonicServiceImpl<ResultDetailMapper
         resultInfo.setResultId(jsonMsg.getInteger("rid"));
         resultInfo.setCaseId(jsonMsg.getInteger("cid"));
         resultInfo.setTime(jsonMsg.getDate("time"));
-        resultInfo.setDeviceId(resultDevice == null ? 0 : resultDevice.getId());
-
-        if (resultInfo.getType().equals("status")) {
-            baseMapper.delete(new LambdaQueryWrapper<ResultDetail>()
-                    .eq(ResultDetail::getResultId, resultInfo.getResultId())
-                    .eq(ResultDetail::getType, resultInfo.getType())
-                    .eq(ResultDetail::getCaseId, resultInfo.getCaseId())
-                    .eq(ResultDetail::getDeviceId, resultInfo.getDeviceId())
-            );
-        }
+        resultInfo.setDeviceId(devicesService.findIdByAgentIdAndUdId(jsonMsg.getInteger("agentId"), jsonMsg.getString("udId")));
 
-        save(resultInfo);
-        if (jsonMsg.getString("msg").equals("status")) {
-            resultsService.suiteResult(jsonMsg.getInteger("rid"));
+        if (!resultInfo.getType().equals("status")) {
+            resultDetailWriteBuffer.add(resultInfo);
+            return;
+        }
+        // status 之前的数据要先落库，保证 suiteResult 读到的是完整结果
+        resultDetailWriteBuffer.flush();
+        List<Integer> replaced = new ArrayList<>();
+        for (ResultDetail old : baseMapper.selectList(sameStatus(resultInfo).select(ResultDetail::getId, ResultDetail::getStatus))) {
+            replaced.add(old.getStatus());
+        }
+        if (!replaced.isEmpty()) {
+            baseMapper.delete(sameStatus(resultInfo));
         }
+        save(resultInfo);
+        resultsService.countStatus(resultInfo.getResultId(), replaced, resultInfo.getStatus());
+        resultsService.suiteResult(jsonMsg.getInteger("rid"));
+    }
+
+    /**
+     * 同一结果、用例、设备下的状态记录，新状态会替换旧状态
+     */
+    private LambdaQueryWrapper<ResultDetail> sameStatus(ResultDetail resultInfo) {
+        return new LambdaQueryWrapper<ResultDetail>()
+                .eq(ResultDetail::getResultId, resultInfo.getResultId())
+                .eq(ResultDetail::getType, resultInfo.getType())
+                .eq(ResultDetail::getCaseId, resultInfo.getCaseId())
+                .eq(ResultDetail::getDeviceId, resultInfo.getDeviceId());
     }
 
     @Override
@@ -123,9 +137,21 @@ public class ResultDetailServiceImpl extends SonicServiceImpl<ResultDetailMapper
 
     @Override
     public void deleteByResultId(int resultId) {
+        resultDetailWriteBuffer.flush();
         baseMapper.delete(new QueryWrapper<ResultDetail>().eq("result_id", resultId));
     }
 
+    @Override
+    public long deleteByResultIds(List<Integer> resultIds, int limit) {
+        long total = 0;
+        int count;
+        do {
+            count = resultDetailMapper.deleteByResultIds(resultIds, limit);
+            total += count;
+        } while (count >= limit);
+        return total;
+    }
+
     @Override
     public List<JSONObject> findTimeByResultIdGroupByCaseId(int resultId) {
         return resultDetailMapper.findTimeByResultIdGroupByCaseId(resultId);
@@ -135,14 +161,4 @@ public class ResultDetailServiceImpl extends SonicServiceImpl<ResultDetailMapper
     public List<JSONObject> findStatusByResultIdGroupByCaseId(int resultId) {
         return resultDetailMapper.findStatusByResultIdGroupByCaseId(resultId);
     }
-
-    @Override
-    public List<JSONObject> findTopCases(String startTime, String endTime, int projectId) {
-        return resultDetailMapper.findTopCases(startTime, endTime, projectId);
-    }
-
-    @Override
-    public List<JSONObject> findTopDevices(String startTime, String endTime, int projectId) {
-        return resultDetailMapper.findTopDevices(startTime, endTime, projectId);
-    }
 }
@@ -0,0 +1,187 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.services.impl;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.ResultDetailMapper;
+import org.cloud.sonic.controller.models.domain.ResultDetail;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * result_detail 写缓冲
+ * <p>
+ * 由单个写线程按入队顺序合并成多行 INSERT，攒够 batch-size 条或等待 flush-ms 后写入。
+ * {@link #flush()} 会在队列中放一个屏障，等屏障之前的数据全部落库后才返回。
+ */
+@Slf4j
+@Component
+public class ResultDetailWriteBuffer {
+
+    @Autowired
+    private ResultDetailMapper resultDetailMapper;
+
+    @Value("${sonic.result.write-buffer.batch-size:200}")
+    private int batchSize;
+
+    @Value("${sonic.result.write-buffer.flush-ms:5}")
+    private long flushMillis;
+
+    @Value("${sonic.result.write-buffer.capacity:20000}")
+    private int capacity;
+
+    private BlockingQueue<Object> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(capacity);
+        running = true;
+        writer = new Thread(this::writeLoop, "result-detail-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 加入写缓冲，队列已满时阻塞调用方
+     */
+    public void add(ResultDetail resultDetail) {
+        if (!running) {
+            resultDetailMapper.insert(resultDetail);
+            return;
+        }
+        try {
+            queue.put(resultDetail);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resultDetailMapper.insert(resultDetail);
+        }
+    }
+
+    /**
+     * 同步刷盘，返回时调用前加入的数据均已写入
+     */
+    public void flush() {
+        if (!running) {
+            return;
+        }
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        try {
+            queue.put(barrier);
+            barrier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Flush result detail failed.", e);
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    private void writeLoop() {
+        List<ResultDetail> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Object first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                Object next = first;
+                while (next != null) {
+                    if (next instanceof CompletableFuture<?> barrier) {
+                        write(batch);
+                        barrier.complete(null);
+                        break;
+                    }
+                    batch.add((ResultDetail) next);
+                    if (batch.size() >= batchSize) {
+                        write(batch);
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } catch (Throwable e) {
+                log.error("Result detail writer error.", e);
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<ResultDetail> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            resultDetailMapper.insertBatch(batch);
+        } catch (Exception e) {
+            log.error("Batch insert {} result details failed, retry one by one.", batch.size(), e);
+            for (ResultDetail resultDetail : batch) {
+                try {
+                    resultDetailMapper.insert(resultDetail);
+                } catch (Exception ex) {
+                    log.error("Insert result detail failed, rid: {} cid: {}", resultDetail.getResultId(), resultDetail.getCaseId(), ex);
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * 停止前把缓冲中的数据全部写完
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Object remain;
+        List<ResultDetail> batch = new ArrayList<>();
+        while ((remain = queue.poll()) != null) {
+            if (remain instanceof CompletableFuture<?> barrier) {
+                barrier.complete(null);
+            } else {
+                batch.add((ResultDetail) remain);
+            }
+        }
+        write(batch);
+    }
+}
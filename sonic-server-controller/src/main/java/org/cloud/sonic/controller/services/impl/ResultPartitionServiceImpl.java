@@ -0,0 +1,221 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.services.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.ResultPartitionMapper;
+import org.cloud.sonic.controller.services.ResultPartitionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * results / result_detail 按 id 范围分区
+ * <p>
+ * actable 维护的主键只有 id，MySQL 要求分区列包含在主键中，所以按 id 而不是时间分区。
+ * 新分区的上界提前设在当前最大 id 之后，按最近一个周期写入的行数预留，pmax 平时为空，
+ * 切分只改元数据，不复制数据也不阻塞写入。
+ * 清理时整块删除已写满且最新一行早于截止时间的分区，不再逐行删除。
+ * 所有 DDL 都在 MySQL 命名锁内执行，多个实例只会有一个执行。
+ */
+@Slf4j
+@Service
+public class ResultPartitionServiceImpl implements ResultPartitionService {
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final String INIT_PARTITION = "pinit";
+    private static final String LOCK_NAME = "sonic_result_partition";
+    private static final long MIN_PARTITION_ROWS = 1000;
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+    private static final List<PartitionTable> TABLES = List.of(
+            new PartitionTable("results", "create_time"),
+            new PartitionTable("result_detail", "time"));
+
+    @Autowired
+    private ResultPartitionMapper resultPartitionMapper;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${sonic.result.partition.enable:false}")
+    private boolean enable;
+
+    @Value("${sonic.result.partition.interval-days:7}")
+    private int intervalDays;
+
+    /**
+     * 首次开启时把未分区的表转换为分区表，会重建整张表，放到后台执行；
+     * 已有的行全部放入 pinit，之后的写入进入预留好的新分区
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (!enable) {
+            return;
+        }
+        Thread thread = new Thread(() -> withLock(() -> {
+            String name = LocalDate.now().format(NAME_FORMAT);
+            for (PartitionTable table : TABLES) {
+                try {
+                    // 拿到锁后再确认一次，其他实例可能已经转换完成
+                    if (!resultPartitionMapper.findPartitions(table.name()).isEmpty()) {
+                        continue;
+                    }
+                    long nextId = resultPartitionMapper.findMaxId(table.name()) + 1;
+                    log.warn("partitioning table {}, it will be rebuilt...", table.name());
+                    resultPartitionMapper.partition(table.name(), INIT_PARTITION, nextId, name, nextId + partitionRows(table));
+                    log.info("table {} partitioned.", table.name());
+                } catch (Exception e) {
+                    log.error("partition table {} failed: {}", table.name(), e.getMessage());
+                }
+            }
+        }), "result-partition-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    @Scheduled(cron = "${sonic.result.partition.cron:0 10 0 * * ?}")
+    public void split() {
+        if (!enable) {
+            return;
+        }
+        withLock(() -> {
+            String name = LocalDate.now().format(NAME_FORMAT);
+            for (PartitionTable table : TABLES) {
+                try {
+                    splitTable(table, name);
+                } catch (Exception e) {
+                    log.warn("split table {} failed: {}", table.name(), e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * 当前写入的分区剩余空间不足一个周期的行数时，从 pmax 中再切出一个分区
+     */
+    private void splitTable(PartitionTable table, String name) {
+        List<JSONObject> partitions = resultPartitionMapper.findPartitions(table.name());
+        if (partitions.size() < 2) {
+            // 尚未转换
+            return;
+        }
+        JSONObject active = partitions.get(partitions.size() - 2);
+        if (name.equals(active.getString("name"))) {
+            return;
+        }
+        long activeBound = active.getLongValue("bound");
+        long nextId = resultPartitionMapper.findMaxId(table.name()) + 1;
+        long rows = partitionRows(table);
+        if (activeBound - nextId >= rows) {
+            return;
+        }
+        if (nextId > activeBound) {
+            // 预留不足，溢出到 pmax 的行会在这次切分时被复制
+            log.warn("table {} has {} rows in pmax, split will copy them.", table.name(), nextId - activeBound);
+        }
+        long bound = Math.max(activeBound, nextId) + rows;
+        resultPartitionMapper.split(table.name(), name, bound);
+        log.info("table {} added partition {} below id {}", table.name(), name, bound);
+    }
+
+    /**
+     * 按最近一个周期写入的行数预留下一个分区
+     */
+    private long partitionRows(PartitionTable table) {
+        Date since = new Date(System.currentTimeMillis() - intervalDays * 86400000L);
+        return Math.max(MIN_PARTITION_ROWS, resultPartitionMapper.countSince(table.name(), table.timeColumn(), since));
+    }
+
+    @Override
+    public int dropBefore(Date cutoff) {
+        if (!enable) {
+            return 0;
+        }
+        AtomicInteger dropped = new AtomicInteger();
+        withLock(() -> {
+            for (PartitionTable table : TABLES) {
+                try {
+                    List<String> expired = expiredPartitions(table, cutoff);
+                    if (expired.isEmpty()) {
+                        continue;
+                    }
+                    resultPartitionMapper.drop(table.name(), String.join(",", expired));
+                    log.info("table {} dropped partitions {}", table.name(), expired);
+                    dropped.addAndGet(expired.size());
+                } catch (Exception e) {
+                    log.warn("drop partitions of table {} failed: {}", table.name(), e.getMessage());
+                }
+            }
+        });
+        return dropped.get();
+    }
+
+    /**
+     * 从最旧的分区开始，取已写满（上界不超过下一个 id）且最新一行早于 cutoff 的分区
+     */
+    private List<String> expiredPartitions(PartitionTable table, Date cutoff) {
+        long nextId = resultPartitionMapper.findMaxId(table.name()) + 1;
+        List<String> expired = new ArrayList<>();
+        for (JSONObject partition : resultPartitionMapper.findPartitions(table.name())) {
+            String name = partition.getString("name");
+            if (MAX_PARTITION.equals(name) || partition.getLongValue("bound") > nextId) {
+                break;
+            }
+            Date maxTime = resultPartitionMapper.findMaxTime(table.name(), table.timeColumn(), name);
+            if (maxTime != null && !maxTime.before(cutoff)) {
+                break;
+            }
+            expired.add(name);
+        }
+        return expired;
+    }
+
+    /**
+     * 在 MySQL 命名锁内执行，锁被其他实例持有时跳过；
+     * 命名锁属于连接，放在同一个事务里保证 get_lock、DDL 与 release_lock 使用同一个连接
+     */
+    private void withLock(Runnable action) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Integer locked = resultPartitionMapper.getLock(LOCK_NAME, 0);
+            if (locked == null || locked != 1) {
+                log.info("result partition lock is held by another instance, skip.");
+                return;
+            }
+            try {
+                action.run();
+            } finally {
+                resultPartitionMapper.releaseLock(LOCK_NAME);
+            }
+        });
+    }
+
+    private record PartitionTable(String name, String timeColumn) {
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.services.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.ResultDayCaseMapper;
+import org.cloud.sonic.controller.mapper.ResultDayDeviceMapper;
+import org.cloud.sonic.controller.mapper.ResultDayStatMapper;
+import org.cloud.sonic.controller.models.domain.ResultDayStat;
+import org.cloud.sonic.controller.models.domain.Results;
+import org.cloud.sonic.controller.models.interfaces.ResultStatus;
+import org.cloud.sonic.controller.services.ResultRollupService;
+import org.cloud.sonic.controller.services.impl.base.SonicServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 测试结果按天汇总
+ * <p>
+ * 结果结束时由 {@link #record} 增量累加；每天凌晨重算前一天，修正结束后补报的状态；
+ * 汇总表为空时（首次升级）在后台按月回填全部历史结果。
+ */
+@Slf4j
+@Service
+public class ResultRollupServiceImpl extends SonicServiceImpl<ResultDayStatMapper, ResultDayStat> implements ResultRollupService {
+
+    private static final int REBUILD_CHUNK_DAYS = 30;
+
+    @Autowired
+    private ResultDayStatMapper resultDayStatMapper;
+    @Autowired
+    private ResultDayCaseMapper resultDayCaseMapper;
+    @Autowired
+    private ResultDayDeviceMapper resultDayDeviceMapper;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${sonic.result.rollup.backfill-on-start:true}")
+    private boolean backfillOnStart;
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void record(Results results) {
+        String day = new SimpleDateFormat("yyyy-MM-dd").format(results.getEndTime());
+        int status = results.getStatus() == null ? ResultStatus.PASS : results.getStatus();
+        resultDayStatMapper.addCount(results.getProjectId(), day,
+                status == ResultStatus.PASS ? 1 : 0,
+                status == ResultStatus.WARNING ? 1 : 0,
+                status == ResultStatus.FAIL ? 1 : 0);
+        resultDayCaseMapper.addResult(results.getProjectId(), day, results.getId());
+        resultDayDeviceMapper.addResult(results.getProjectId(), day, results.getId());
+    }
+
+    @Override
+    public List<JSONObject> findDayStat(String startDay, String endDay, int projectId) {
+        return resultDayStatMapper.findByDay(startDay, endDay, projectId);
+    }
+
+    @Override
+    public List<JSONObject> findTopCases(String startDay, String endDay, int projectId) {
+        return resultDayCaseMapper.findTop(startDay, endDay, projectId);
+    }
+
+    @Override
+    public List<JSONObject> findTopDevices(String startDay, String endDay, int projectId) {
+        return resultDayDeviceMapper.findTop(startDay, endDay, projectId);
+    }
+
+    @Override
+    public void rebuild(String startDay, String endDay) {
+        // 多个实例同时重算同一天时，后执行的删除会等前一个事务提交
+        transactionTemplate.executeWithoutResult(status -> {
+            resultDayStatMapper.deleteByDay(startDay, endDay);
+            resultDayCaseMapper.deleteByDay(startDay, endDay);
+            resultDayDeviceMapper.deleteByDay(startDay, endDay);
+            resultDayStatMapper.rebuild(startDay, endDay);
+            resultDayCaseMapper.rebuild(startDay, endDay);
+            resultDayDeviceMapper.rebuild(startDay, endDay);
+        });
+    }
+
+    @Scheduled(cron = "${sonic.result.rollup.cron:0 30 0 * * ?}")
+    public void rebuildYesterday() {
+        String yesterday = LocalDate.now().minusDays(1).toString();
+        rebuild(yesterday, yesterday);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!backfillOnStart || resultDayStatMapper.selectCount(null) > 0) {
+            return;
+        }
+        String first = resultDayStatMapper.findFirstDay();
+        if (first == null) {
+            return;
+        }
+        rebuildInBackground(LocalDate.parse(first), LocalDate.now());
+    }
+
+    @Override
+    public void rebuildInBackground(LocalDate startDay, LocalDate endDay) {
+        Thread thread = new Thread(() -> {
+            for (LocalDate start = startDay; !start.isAfter(endDay); start = start.plusDays(REBUILD_CHUNK_DAYS)) {
+                LocalDate end = start.plusDays(REBUILD_CHUNK_DAYS - 1);
+                if (end.isAfter(endDay)) {
+                    end = endDay;
+                }
+                try {
+                    rebuild(start.toString(), end.toString());
+                    log.info("result rollup rebuilt {} ~ {}", start, end);
+                } catch (Exception e) {
+                    log.warn("result rollup rebuild {} ~ {} failed: {}", start, end, e.getMessage());
+                }
+            }
+        }, "result-rollup-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
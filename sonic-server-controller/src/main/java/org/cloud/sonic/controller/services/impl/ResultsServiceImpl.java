@@ -23,7 +23,6 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.cloud.sonic.controller.mapper.ResultsMapper;
 import org.cloud.sonic.controller.models.domain.Projects;
-import org.cloud.sonic.controller.models.domain.ResultDetail;
 import org.cloud.sonic.controller.models.domain.Results;
 import org.cloud.sonic.controller.models.domain.TestCases;
 import org.cloud.sonic.controller.models.dto.TestSuitesDTO;
@@ -34,13 +33,17 @@ import org.cloud.sonic.controller.services.impl.base.SonicServiceImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author ZhouYiXun
@@ -51,7 +54,12 @@ import java.util.concurrent.Executors;
 public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results> implements ResultsService {
 
     private final Logger logger = LoggerFactory.getLogger(ResultsServiceImpl.class);
-    ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+    private final ExecutorService cleanExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "result-clean");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean cleaning = new AtomicBoolean();
 
     @Autowired
     private ResultsMapper resultsMapper;
@@ -65,6 +73,34 @@ public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results>
     private TestSuitesService testSuitesService;
     @Autowired
     private TestCasesService testCasesService;
+    @Autowired
+    private ResultRollupService resultRollupService;
+    @Autowired
+    private ResultPartitionService resultPartitionService;
+
+    @Value("${sonic.result.case-status-cache:200}")
+    private int caseStatusCacheSize;
+
+    @Value("${sonic.result.clean.batch-size:100}")
+    private int cleanBatchSize;
+
+    @Value("${sonic.result.clean.detail-batch-size:5000}")
+    private int cleanDetailBatchSize;
+
+    @Value("${sonic.result.clean.pause-ms:200}")
+    private long cleanPauseMillis;
+
+    /**
+     * 已结束结果的用例状态；调用方只读，不要修改返回的 JSONArray
+     * <p>
+     * 结束后仍可能在其他实例上收到补报的状态，缓存时记下当时的通过/警告/失败计数，计数变化即视为失效
+     */
+    private final Map<Integer, CaseStatus> caseStatusCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CaseStatus> eldest) {
+            return size() > caseStatusCacheSize;
+        }
+    });
 
     @Override
     public Page<Results> findByProjectId(int projectId, Page<Results> pageable) {
@@ -81,6 +117,7 @@ public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results>
     @Override
     @Transactional(rollbackFor = Exception.class)
     public boolean delete(int id) {
+        caseStatusCache.remove(id);
         int count = resultsMapper.deleteById(id);
         resultDetailService.deleteByResultId(id);
         return count > 0;
@@ -93,190 +130,273 @@ public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results>
 
     @Override
     public void clean(int day) {
-        long timeMillis = Calendar.getInstance().getTimeInMillis();
-        long time = timeMillis - day * 86400000L;
-        List<Results> resultsList = lambdaQuery()
-                .lt(Results::getCreateTime, new Date(time))
-                .list();
-        cachedThreadPool.execute(() -> {
-            for (Results results : resultsList) {
-                logger.info("clear report id: " + results.getId());
-                delete(results.getId());
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        Date cutoff = new Date(System.currentTimeMillis() - day * 86400000L);
+        if (!cleaning.compareAndSet(false, true)) {
+            logger.info("result clean is running, skip.");
+            return;
+        }
+        cleanExecutor.execute(() -> {
+            try {
+                cleanBefore(cutoff);
+            } catch (Exception e) {
+                logger.error("clean result failed: {}", e.getMessage());
+            } finally {
+                cleaning.set(false);
             }
         });
     }
 
+    /**
+     * 先整块删除过期分区，剩下的按批删除，每批之间暂停，避免长事务和主从延迟
+     */
+    void cleanBefore(Date cutoff) {
+        if (resultPartitionService.dropBefore(cutoff) > 0) {
+            caseStatusCache.clear();
+        }
+        List<Integer> ids;
+        do {
+            ids = resultsMapper.findIdsBefore(cutoff, cleanBatchSize);
+            if (ids.isEmpty()) {
+                return;
+            }
+            long details = resultDetailService.deleteByResultIds(ids, cleanDetailBatchSize);
+            resultsMapper.deleteBatchIds(ids);
+            ids.forEach(caseStatusCache::remove);
+            logger.info("clear report id: {} ~ {}, details: {}", ids.get(0), ids.get(ids.size() - 1), details);
+            try {
+                Thread.sleep(cleanPauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } while (ids.size() >= cleanBatchSize);
+    }
+
     @Override
     public void suiteResult(int id) {
-        Results results = findById(id);
-        if (results != null) {
-            results.setReceiveMsgCount(results.getReceiveMsgCount() + 1);
-            save(results);
-            setStatus(results);
+        if (resultsMapper.addReceiveCount(id) > 0) {
+            setStatus(id);
+        }
+    }
+
+    @Override
+    public void forceStop(int id, String strike, int sendMsgCount) {
+        resultsMapper.forceStop(id, ResultStatus.FAIL, strike, sendMsgCount);
+    }
+
+    @Override
+    public int markReportedFinished() {
+        return resultsMapper.markReportedFinished();
+    }
+
+    @Override
+    public int seedStatusCount() {
+        return resultsMapper.seedStatusCount();
+    }
+
+    @Override
+    public void countStatus(int id, List<Integer> removed, Integer added) {
+        int[] delta = new int[4];
+        for (Integer status : removed) {
+            delta[statusIndex(status)]--;
         }
+        if (added != null) {
+            delta[statusIndex(added)]++;
+        }
+        int pass = delta[ResultDetailStatus.PASS];
+        int warn = delta[ResultDetailStatus.WARN];
+        int fail = delta[ResultDetailStatus.FAIL];
+        if (pass != 0 || warn != 0 || fail != 0) {
+            resultsMapper.addStatusCount(id, pass, warn, fail);
+            // 结束后补报的状态会改变用例状态
+            caseStatusCache.remove(id);
+        }
+    }
+
+    /**
+     * 与原先按明细统计时一致：非警告、非失败都算通过
+     */
+    private static int statusIndex(Integer status) {
+        if (status != null && (status == ResultDetailStatus.FAIL || status == ResultDetailStatus.WARN)) {
+            return status;
+        }
+        return ResultDetailStatus.PASS;
     }
 
     @Override
     @Transactional
     public JSONArray findCaseStatus(int id) {
         Results results = findById(id);
-        SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        if (results != null) {
-            TestSuitesDTO testSuitesDTO = testSuitesService.findById(results.getSuiteId());
-            if (testSuitesDTO != null) {
-                JSONArray result = new JSONArray();
-                List<JSONObject> caseTimes = resultDetailService.findTimeByResultIdGroupByCaseId(results.getId());
-                List<Integer> ci = new ArrayList<>();
-                for (JSONObject j : caseTimes) {
-                    ci.add(j.getInteger("case_id"));
-                }
-                List<TestCases> testCasesList = testCasesService.findByIdIn(ci);
-                List<JSONObject> statusList = resultDetailService.findStatusByResultIdGroupByCaseId(results.getId());
-                for (TestCases testCases : testCasesList) {
-                    JSONObject jsonObject = new JSONObject();
-                    jsonObject.put("case", testCases);
-                    int status = 0;
-                    for (int j = caseTimes.size() - 1; j >= 0; j--) {
-                        if (Objects.equals(caseTimes.get(j).getInteger("case_id"), testCases.getId())) {
-                            jsonObject.put("startTime", sf.format(caseTimes.get(j).getDate("startTime")));
-                            jsonObject.put("endTime", sf.format(caseTimes.get(j).getDate("endTime")));
-                            caseTimes.remove(j);
-                            break;
-                        }
-                    }
-                    List<JSONObject> device = new ArrayList<>();
-                    for (int i = statusList.size() - 1; i >= 0; i--) {
-                        if (statusList.get(i).getInteger("case_id").equals(testCases.getId())) {
-                            JSONObject deviceIdAndStatus = new JSONObject();
-                            deviceIdAndStatus.put("deviceId", statusList.get(i).getInteger("device_id"));
-                            deviceIdAndStatus.put("status", statusList.get(i).getInteger("status"));
-                            if (statusList.get(i).getInteger("status") > status) {
-                                status = statusList.get(i).getInteger("status");
-                            }
-                            device.add(deviceIdAndStatus);
-                            statusList.remove(i);
-                        }
-                    }
-                    jsonObject.put("status", status);
-                    jsonObject.put("device", device);
-                    result.add(jsonObject);
-                    // 按照执行开始时间排序 - 升序
-                    result.sort(Comparator.comparing(
-                            obj -> ((JSONObject) obj).getDate("startTime"))
-                    );
-                }
-                return result;
-            } else {
-                return null;
+        if (results == null) {
+            // 可能已在其他实例上删除
+            caseStatusCache.remove(id);
+            return null;
+        }
+        boolean finished = Objects.equals(results.getFinished(), 1);
+        if (finished) {
+            CaseStatus cached = caseStatusCache.get(id);
+            if (cached != null && cached.matches(results)) {
+                return cached.list();
             }
-        } else {
+        }
+        TestSuitesDTO testSuitesDTO = testSuitesService.findById(results.getSuiteId());
+        if (testSuitesDTO == null) {
             return null;
         }
+        SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Map<Integer, JSONObject> caseTimes = new HashMap<>();
+        for (JSONObject j : resultDetailService.findTimeByResultIdGroupByCaseId(results.getId())) {
+            caseTimes.put(j.getInteger("case_id"), j);
+        }
+        // 与原先倒序匹配时的设备顺序保持一致
+        Map<Integer, List<JSONObject>> statusByCase = new HashMap<>();
+        List<JSONObject> statusList = resultDetailService.findStatusByResultIdGroupByCaseId(results.getId());
+        for (int i = statusList.size() - 1; i >= 0; i--) {
+            JSONObject s = statusList.get(i);
+            statusByCase.computeIfAbsent(s.getInteger("case_id"), k -> new ArrayList<>()).add(s);
+        }
+        List<TestCases> testCasesList = testCasesService.findByIdIn(new ArrayList<>(caseTimes.keySet()));
+        JSONArray result = new JSONArray();
+        for (TestCases testCases : testCasesList) {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("case", testCases);
+            JSONObject time = caseTimes.get(testCases.getId());
+            if (time != null) {
+                jsonObject.put("startTime", sf.format(time.getDate("startTime")));
+                jsonObject.put("endTime", sf.format(time.getDate("endTime")));
+            }
+            int status = 0;
+            List<JSONObject> device = new ArrayList<>();
+            for (JSONObject s : statusByCase.getOrDefault(testCases.getId(), Collections.emptyList())) {
+                JSONObject deviceIdAndStatus = new JSONObject();
+                deviceIdAndStatus.put("deviceId", s.getInteger("device_id"));
+                deviceIdAndStatus.put("status", s.getInteger("status"));
+                status = Math.max(status, s.getInteger("status"));
+                device.add(deviceIdAndStatus);
+            }
+            jsonObject.put("status", status);
+            jsonObject.put("device", device);
+            result.add(jsonObject);
+        }
+        // 按照执行开始时间排序 - 升序
+        result.sort(Comparator.comparing(obj -> ((JSONObject) obj).getDate("startTime"),
+                Comparator.nullsLast(Comparator.naturalOrder())));
+        if (finished) {
+            caseStatusCache.put(id, new CaseStatus(results.getPassCount(), results.getWarnCount(), results.getFailCount(), result));
+        }
+        return result;
     }
 
     @Override
     public void subResultCount(int id) {
-        Results results = findById(id);
-        if (results != null) {
-            results.setSendMsgCount(results.getSendMsgCount() - 1);
-            setStatus(results);
+        if (resultsMapper.subSendCount(id) > 0) {
+            setStatus(id);
         }
     }
 
-    @Transactional
+    /**
+     * 报表只读按天汇总表，时间参数只取日期部分
+     */
     @Override
     public JSONObject chart(String startTime, String endTime, int projectId) {
-        List<String> dateList = getBetweenDate(startTime.substring(0, 10), endTime.substring(0, 10));
+        String startDay = startTime.substring(0, 10);
+        String endDay = endTime.substring(0, 10);
+        List<String> dateList = getBetweenDate(startDay, endDay);
         JSONObject result = new JSONObject();
-        result.put("case", resultDetailService.findTopCases(startTime, endTime, projectId));
-        result.put("device", resultDetailService.findTopDevices(startTime, endTime, projectId));
-        List<JSONObject> rateList = resultsMapper.findDayPassRate(startTime, endTime, projectId);
+        result.put("case", resultRollupService.findTopCases(startDay, endDay, projectId));
+        result.put("device", resultRollupService.findTopDevices(startDay, endDay, projectId));
+        List<JSONObject> dayStat = resultRollupService.findDayStat(startDay, endDay, projectId);
+        Map<String, Float> rates = new HashMap<>();
+        int[] counts = new int[4];
+        for (JSONObject s : dayStat) {
+            int pass = s.getIntValue("pass_count");
+            int warn = s.getIntValue("warn_count");
+            int fail = s.getIntValue("fail_count");
+            int total = pass + warn + fail;
+            if (total > 0) {
+                rates.put(s.getString("date"), Math.round(pass * 10000f / total) / 100f);
+            }
+            counts[ResultStatus.PASS] += pass;
+            counts[ResultStatus.WARNING] += warn;
+            counts[ResultStatus.FAIL] += fail;
+        }
         List<JSONObject> rateResult = new ArrayList<>();
         for (String date : dateList) {
             JSONObject d = new JSONObject();
             d.put("date", date);
-            d.put("rate", 0);
-            for (Iterator<JSONObject> ite = rateList.iterator(); ite.hasNext(); ) {
-                JSONObject s = ite.next();
-                if (s.getString("date").equals(date)) {
-                    d.put("rate", s.getFloat("rate"));
-                    ite.remove();
-                    break;
-                }
-            }
+            d.put("rate", rates.getOrDefault(date, 0f));
             rateResult.add(d);
         }
         result.put("pass", rateResult);
-        result.put("status", resultsMapper.findDayStatus(startTime, endTime, projectId));
+        result.put("status", statusTotals(counts));
         return result;
     }
 
-    @Transactional
+    /**
+     * 与原先 group by status 的结果格式一致，没有的状态不返回
+     */
+    private static List<JSONObject> statusTotals(int[] counts) {
+        List<JSONObject> status = new ArrayList<>();
+        for (int s : new int[]{ResultStatus.PASS, ResultStatus.WARNING, ResultStatus.FAIL}) {
+            if (counts[s] > 0) {
+                JSONObject j = new JSONObject();
+                j.put("status", s);
+                j.put("total", counts[s]);
+                status.add(j);
+            }
+        }
+        return status;
+    }
+
+    private int[] sumStatus(String startDay, String endDay, int projectId) {
+        int[] counts = new int[4];
+        for (JSONObject s : resultRollupService.findDayStat(startDay, endDay, projectId)) {
+            counts[ResultStatus.PASS] += s.getIntValue("pass_count");
+            counts[ResultStatus.WARNING] += s.getIntValue("warn_count");
+            counts[ResultStatus.FAIL] += s.getIntValue("fail_count");
+        }
+        return counts;
+    }
+
+    /**
+     * 日报统计前一个自然日
+     */
     @Override
     public void sendDayReport() {
-        long timeMillis = Calendar.getInstance().getTimeInMillis();
-        SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        LocalDate today = LocalDate.now();
+        String yesterday = today.minusDays(1).toString();
+        Date start = toDate(today.minusDays(1));
+        Date end = toDate(today);
         List<Projects> projectsList = projectsService.findAll();
         for (Projects projects : projectsList) {
-            Date yesterday = new Date(timeMillis - 86400000);
-            Date today = new Date(timeMillis);
-            List<JSONObject> status = resultsMapper.findDayStatus(sf.format(yesterday), sf.format(today), projects.getId());
-            int suc = 0;
-            int warn = 0;
-            int fail = 0;
-            for (JSONObject j : status) {
-                switch (j.getInteger("status")) {
-                    case 1:
-                        suc += j.getInteger("total");
-                        break;
-                    case 2:
-                        warn += j.getInteger("total");
-                        break;
-                    case 3:
-                        fail += j.getInteger("total");
-                        break;
-                }
-            }
-            alertRobotsService.sendProjectReportMessage(projects.getId(), projects.getProjectName(), yesterday, today, false, suc, warn, fail);
+            int[] counts = sumStatus(yesterday, yesterday, projects.getId());
+            alertRobotsService.sendProjectReportMessage(projects.getId(), projects.getProjectName(), start, end, false,
+                    counts[ResultStatus.PASS], counts[ResultStatus.WARNING], counts[ResultStatus.FAIL]);
         }
     }
 
-    @Transactional
+    /**
+     * 周报统计此前 7 个自然日
+     */
     @Override
     public void sendWeekReport() {
-        long timeMillis = Calendar.getInstance().getTimeInMillis();
-        SimpleDateFormat sf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        LocalDate today = LocalDate.now();
+        String startDay = today.minusDays(7).toString();
+        String endDay = today.minusDays(1).toString();
+        Date start = toDate(today.minusDays(7));
+        Date end = toDate(today);
         List<Projects> projectsList = projectsService.findAll();
         for (Projects projects : projectsList) {
-            Date lastWeek = new Date(timeMillis - 86400000 * 7L);
-            Date today = new Date(timeMillis);
-            List<JSONObject> status = resultsMapper.findDayStatus(sf.format(lastWeek), sf.format(today), projects.getId());
-            int count = resultsMapper.findRunCount(sf.format(lastWeek), sf.format(today), projects.getId());
-            int suc = 0;
-            int warn = 0;
-            int fail = 0;
-            for (JSONObject j : status) {
-                switch (j.getInteger("status")) {
-                    case 1:
-                        suc += j.getInteger("total");
-                        break;
-                    case 2:
-                        warn += j.getInteger("total");
-                        break;
-                    case 3:
-                        fail += j.getInteger("total");
-                        break;
-                }
-            }
-            alertRobotsService.sendProjectReportMessage(projects.getId(), projects.getProjectName(), lastWeek, today, true, suc, warn, fail);
+            int[] counts = sumStatus(startDay, endDay, projects.getId());
+            alertRobotsService.sendProjectReportMessage(projects.getId(), projects.getProjectName(), start, end, true,
+                    counts[ResultStatus.PASS], counts[ResultStatus.WARNING], counts[ResultStatus.FAIL]);
         }
     }
 
+    private static Date toDate(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
     public static List<String> getBetweenDate(String begin, String end) {
         SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
         List<String> betweenList = new ArrayList<String>();
@@ -301,22 +421,28 @@ public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results>
         return betweenList;
     }
 
-    @Transactional(rollbackFor = Exception.class)
-    public void setStatus(Results results) {
-        List<ResultDetail> resultDetailList = resultDetailService.findAll(results.getId(), 0, "status", 0);
-        int failCount = 0;
-        int sucCount = 0;
-        int warnCount = 0;
-        int status;
-        for (ResultDetail resultDetail : resultDetailList) {
-            if (resultDetail.getStatus() == ResultDetailStatus.FAIL) {
-                failCount++;
-            } else if (resultDetail.getStatus() == ResultDetailStatus.WARN) {
-                warnCount++;
-            } else {
-                sucCount++;
-            }
+    /**
+     * 收发计数已由单条 SQL 更新，这里读取更新后的值判断是否结束；
+     * 结束由 {@link ResultsMapper#claimFinish} 条件更新抢占，并发上报时结束通知只发一次。
+     * 通过、警告、失败计数由 {@link #countStatus} 随状态消息增量维护，不再读取明细
+     */
+    private void setStatus(int id) {
+        Results results = findById(id);
+        if (results == null || Objects.equals(results.getFinished(), 1)) {
+            return;
+        }
+        int failCount = count(results.getFailCount());
+        int sucCount = count(results.getPassCount());
+        int warnCount = count(results.getWarnCount());
+        if (results.getSendMsgCount() < 1 && sucCount == 0 && failCount == 0 && warnCount == 0) {
+            delete(results.getId());
+            return;
         }
+        //发收相同的话，表明测试结束了
+        if (results.getReceiveMsgCount() < results.getSendMsgCount()) {
+            return;
+        }
+        int status;
         if (failCount > 0) {
             status = ResultStatus.FAIL;
         } else if (warnCount > 0) {
@@ -325,22 +451,36 @@ public class ResultsServiceImpl extends SonicServiceImpl<ResultsMapper, Results>
             status = ResultStatus.PASS;
         }
         //状态赋予等级最高的
-        results.setStatus(status > results.getStatus() ? status : results.getStatus());
-        if (results.getSendMsgCount() < 1 && sucCount == 0 && failCount == 0 && warnCount == 0) {
-            delete(results.getId());
-        } else {
-            //发收相同的话，表明测试结束了
-            if (Objects.equals(results.getReceiveMsgCount(), results.getSendMsgCount())) {
-                results.setEndTime(new Date());
-                save(results);
-                alertRobotsService.sendResultFinishReport(results.getSuiteId(),
-                        results.getSuiteName(), sucCount, warnCount, failCount, results.getProjectId(), results.getId());
+        if (resultsMapper.claimFinish(id, status, new Date()) == 1) {
+            // 抢到结束标记后计数不会再变化，重新读取发送通知
+            results = findById(id);
+            try {
+                resultRollupService.record(results);
+            } catch (Exception e) {
+                // 漏记的部分由每日重算补上
+                logger.warn("record result rollup failed, id: {}, {}", id, e.getMessage());
             }
+            alertRobotsService.sendResultFinishReport(results.getSuiteId(), results.getSuiteName(),
+                    count(results.getPassCount()), count(results.getWarnCount()), count(results.getFailCount()),
+                    results.getProjectId(), results.getId());
         }
     }
 
+    private static int count(Integer value) {
+        return value == null ? 0 : value;
+    }
+
     @Override
     public void deleteByProjectId(int projectId) {
         baseMapper.delete(new LambdaQueryWrapper<Results>().eq(Results::getProjectId, projectId));
     }
+
+    private record CaseStatus(Integer passCount, Integer warnCount, Integer failCount, JSONArray list) {
+
+        private boolean matches(Results results) {
+            return Objects.equals(passCount, results.getPassCount())
+                    && Objects.equals(warnCount, results.getWarnCount())
+                    && Objects.equals(failCount, results.getFailCount());
+        }
+    }
 }
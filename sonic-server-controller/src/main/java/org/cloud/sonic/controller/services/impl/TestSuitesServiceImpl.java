@@ -173,16 +173,11 @@ public class TestSuitesServiceImpl extends SonicServiceImpl<TestSuitesMapper, Te
             return new RespModel<>(3003, "suite.can.not.connect.device");
         }
 
-        results.setStatus(ResultStatus.FAIL);
-        results.setStrike(strike);
-        if (testSuitesDTO.getCover() == CoverType.CASE) {
-            results.setSendMsgCount(testSuitesDTO.getTestCases().size());
-        }
-        if (testSuitesDTO.getCover() == CoverType.DEVICE) {
-            results.setSendMsgCount(testSuitesDTO.getTestCases().size() * devicesList.size());
-        }
-        results.setProjectId(testSuitesDTO.getProjectId());
-        resultsService.save(results);
+        int sendMsgCount = testSuitesDTO.getCover() == CoverType.DEVICE
+                ? testSuitesDTO.getTestCases().size() * devicesList.size()
+                : testSuitesDTO.getTestCases().size();
+        // 只更新相关字段，避免用读到的旧行覆盖并发更新的接收计数与结束标记
+        resultsService.forceStop(resultId, strike, sendMsgCount);
 
         int deviceIndex = 0;
         if (testSuitesDTO.getCover() == CoverType.CASE) {
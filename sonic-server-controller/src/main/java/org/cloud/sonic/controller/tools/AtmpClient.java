@@ -0,0 +1,340 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.tools;
+
+import com.alibaba.fastjson.JSON;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ATMP 设备同步客户端（异步）
+ * <p>
+ * 基于 java.net.http.HttpClient，调用方只入队不等待：
+ * <ul>
+ * <li>devicePhone/add 按 udId 去重，队列中只保留最新的一次，失败后指数退避重试</li>
+ * <li>sendheart 不重试，结果通过 future 返回，由调用方决定后续处理</li>
+ * <li>连续失败达到阈值后熔断，熔断期间同步请求留在队列里，心跳直接返回失败</li>
+ * </ul>
+ * ATMP 再慢也只会让本客户端的队列变长，不会占用 ws-keeper 线程。
+ */
+@Slf4j
+@Component
+public class AtmpClient {
+
+    private enum BreakerState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Value("${atmp.server.base-url:}")
+    private String atmpBaseUrl;
+
+    @Value("${atmp.server.token:}")
+    private String atmpToken;
+
+    @Value("${atmp.client.timeout-ms:5000}")
+    private long timeoutMillis;
+
+    @Value("${atmp.client.queue-capacity:2000}")
+    private int queueCapacity;
+
+    @Value("${atmp.client.max-in-flight:8}")
+    private int maxInFlight;
+
+    @Value("${atmp.client.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${atmp.client.retry-base-ms:1000}")
+    private long retryBaseMillis;
+
+    @Value("${atmp.client.retry-max-ms:60000}")
+    private long retryMaxMillis;
+
+    @Value("${atmp.client.breaker-failures:5}")
+    private int breakerFailures;
+
+    @Value("${atmp.client.breaker-open-ms:30000}")
+    private long breakerOpenMillis;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "atmp-client");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 待发送的同步请求，key 为 udId，同一设备只保留最新的
+     */
+    private final LinkedHashMap<String, SyncTask> queue = new LinkedHashMap<>();
+    /**
+     * 每台设备最新一次同步的序号，重试前据此判断是否已被更新的请求取代；
+     * 该请求成功或放弃后移除，只保留排队、发送中与等待重试的设备
+     */
+    private final Map<String, Long> latest = new HashMap<>();
+    private long sequence;
+    private int inFlight;
+
+    private BreakerState breakerState = BreakerState.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+
+    private Timer syncTimer;
+    private Timer heartTimer;
+    private Counter syncFailed;
+    private Counter heartFailed;
+    private Counter dropped;
+
+    @PostConstruct
+    public void init() {
+        syncTimer = Timer.builder("sonic.atmp.request").tag("type", "sync").register(meterRegistry);
+        heartTimer = Timer.builder("sonic.atmp.request").tag("type", "heartbeat").register(meterRegistry);
+        syncFailed = Counter.builder("sonic.atmp.failed").tag("type", "sync").register(meterRegistry);
+        heartFailed = Counter.builder("sonic.atmp.failed").tag("type", "heartbeat").register(meterRegistry);
+        dropped = Counter.builder("sonic.atmp.dropped").register(meterRegistry);
+        Gauge.builder("sonic.atmp.queue", this, AtmpClient::queueSize).register(meterRegistry);
+        Gauge.builder("sonic.atmp.breaker.open", this, c -> c.isOpen() ? 1 : 0).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return atmpBaseUrl != null && !atmpBaseUrl.isBlank();
+    }
+
+    /**
+     * 同步设备信息到 ATMP（devicePhone/add），立即返回
+     */
+    public void syncDevice(String udId, Map<String, Object> body) {
+        if (!isEnabled()) {
+            log.warn("[WS:{}] 跳过同步：未配置 atmp.server.base-url", udId);
+            return;
+        }
+        synchronized (this) {
+            SyncTask old = queue.remove(udId);
+            if (old == null && queue.size() >= queueCapacity) {
+                dropped.increment();
+                log.warn("ATMP 同步队列已满，丢弃设备udId: {}", udId);
+                return;
+            }
+            SyncTask task = new SyncTask(udId, JSON.toJSONString(body), ++sequence);
+            latest.put(udId, task.seq);
+            queue.put(udId, task);
+        }
+        executor.execute(this::pump);
+    }
+
+    /**
+     * 上报一批设备心跳（devicePhone/sendheart）
+     *
+     * @return 是否成功，熔断中直接返回 false
+     */
+    public CompletableFuture<Boolean> heartbeat(String providerId, List<String> ids) {
+        if (!isEnabled() || !allowRequest()) {
+            heartFailed.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("providerId", providerId);
+        body.put("ids", ids);
+        long start = System.nanoTime();
+        return client.sendAsync(request("/device/devicePhone/sendheart", JSON.toJSONString(body), true), HttpResponse.BodyHandlers.ofString())
+                .handle((response, e) -> {
+                    heartTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    boolean ok = e == null && response.statusCode() / 100 == 2;
+                    onResult(ok);
+                    if (ok) {
+                        log.info("上报 {} 台设备心跳到ATMP成功, providerId: {}, 返回: {}", ids.size(), providerId, response.body());
+                    } else {
+                        heartFailed.increment();
+                        log.warn("上报 {} 台设备心跳失败, providerId: {}: {}", ids.size(), providerId,
+                                e != null ? e.toString() : "HTTP " + response.statusCode());
+                    }
+                    return ok;
+                });
+    }
+
+    public synchronized int queueSize() {
+        return queue.size();
+    }
+
+    public synchronized boolean isOpen() {
+        return breakerState == BreakerState.OPEN && System.currentTimeMillis() < openUntil;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在 atmp-client 线程上按并发上限取出任务发送
+     */
+    private void pump() {
+        while (true) {
+            SyncTask task;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || queue.isEmpty()) {
+                    return;
+                }
+                if (!allowRequest()) {
+                    // 熔断结束后再继续
+                    executor.schedule(this::pump, Math.max(100, openUntil - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    return;
+                }
+                Iterator<SyncTask> it = queue.values().iterator();
+                task = it.next();
+                it.remove();
+                inFlight++;
+            }
+            send(task);
+        }
+    }
+
+    private void send(SyncTask task) {
+        long start = System.nanoTime();
+        client.sendAsync(request("/device/devicePhone/add", task.body, false), HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, e) -> {
+                    syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    boolean ok = e == null && response.statusCode() / 100 == 2;
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    onResult(ok);
+                    if (ok) {
+                        done(task);
+                        log.info("同步设备udId: {}到ATMP成功, 返回: {}", task.udId, response.body());
+                    } else {
+                        syncFailed.increment();
+                        retry(task, e != null ? e.toString() : "HTTP " + response.statusCode());
+                    }
+                    executor.execute(this::pump);
+                });
+    }
+
+    private void retry(SyncTask task, String reason) {
+        if (task.attempt >= maxRetries) {
+            done(task);
+            log.warn("同步设备udId: {}到ATMP失败，已重试 {} 次，放弃: {}", task.udId, task.attempt, reason);
+            return;
+        }
+        long delay = Math.min(retryMaxMillis, retryBaseMillis << Math.min(task.attempt, 20));
+        task.attempt++;
+        log.warn("同步设备udId: {}到ATMP失败，{} 毫秒后第 {} 次重试: {}", task.udId, delay, task.attempt, reason);
+        executor.schedule(() -> {
+            synchronized (this) {
+                // 期间有更新的同步请求则以新的为准
+                Long seq = latest.get(task.udId);
+                if (seq != null && seq == task.seq) {
+                    queue.putIfAbsent(task.udId, task);
+                }
+            }
+            pump();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 请求已结束，仍是该设备最新的请求时移除序号
+     */
+    private synchronized void done(SyncTask task) {
+        latest.remove(task.udId, task.seq);
+    }
+
+    private HttpRequest request(String path, String body, boolean put) {
+        String base = atmpBaseUrl.endsWith("/") ? atmpBaseUrl.substring(0, atmpBaseUrl.length() - 1) : atmpBaseUrl;
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofString(body);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(base + path))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .header("Content-Type", "application/json")
+                .header("X-Access-Token", atmpToken);
+        return (put ? builder.PUT(publisher) : builder.POST(publisher)).build();
+    }
+
+    /**
+     * 熔断打开期间拒绝；到期后进入半开，只放行一个试探请求
+     */
+    private synchronized boolean allowRequest() {
+        switch (breakerState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                breakerState = BreakerState.HALF_OPEN;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void onResult(boolean ok) {
+        if (ok) {
+            consecutiveFailures = 0;
+            breakerState = BreakerState.CLOSED;
+            return;
+        }
+        consecutiveFailures++;
+        if (breakerState == BreakerState.HALF_OPEN || consecutiveFailures >= breakerFailures) {
+            if (breakerState != BreakerState.OPEN) {
+                log.warn("ATMP 连续失败 {} 次，熔断 {} 毫秒", consecutiveFailures, breakerOpenMillis);
+            }
+            breakerState = BreakerState.OPEN;
+            openUntil = System.currentTimeMillis() + breakerOpenMillis;
+        }
+    }
+
+    private static final class SyncTask {
+        private final String udId;
+        private final String body;
+        private final long seq;
+        private int attempt;
+
+        private SyncTask(String udId, String body, long seq) {
+            this.udId = udId;
+            this.body = body;
+            this.seq = seq;
+        }
+    }
+}
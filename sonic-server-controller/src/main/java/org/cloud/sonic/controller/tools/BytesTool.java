@@ -17,18 +17,43 @@
  */
 package org.cloud.sonic.controller.tools;
 
+import com.alibaba.fastjson.JSONObject;
 import jakarta.websocket.Session;
 import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.transport.OutboundDispatcher;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 @Slf4j
 public class BytesTool {
-    public static Map<Integer, Session> agentSessionMap = new HashMap<>();
+    private static OutboundDispatcher outboundDispatcher = SpringTool.getBean(OutboundDispatcher.class);
 
     public static void sendText(Session session, String message) {
+        sendText(session, message, null);
+    }
+
+    public static void sendText(Session session, JSONObject message) {
+        sendText(session, message.toJSONString(), message.getString("msg"));
+    }
+
+    /**
+     * 异步发送，消息进入会话的出站队列后立即返回
+     *
+     * @param msgType 消息类型，用于合并被覆盖的控制消息
+     */
+    public static void sendText(Session session, String message, String msgType) {
+        if (session == null || !session.isOpen()) {
+            return;
+        }
+        if (!outboundDispatcher.send(session, message, msgType)) {
+            log.warn("Session: {} outbound queue full, msg dropped.", session.getId());
+        }
+    }
+
+    /**
+     * 同步发送，仅用于发送后立即关闭会话等必须保证先写出的场景
+     */
+    public static void sendTextSync(Session session, String message) {
         if (session == null || !session.isOpen()) {
             return;
         }
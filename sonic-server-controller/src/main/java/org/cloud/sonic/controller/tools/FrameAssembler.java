@@ -0,0 +1,81 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.tools;
+
+/**
+ * WebSocket 分片文本帧拼接
+ * <p>
+ * 按 last 标记把分片拼成完整消息；累计超过 maxChars 的消息整条丢弃，直到该消息的最后一片到达。
+ * 非线程安全，同一连接的回调由 request(1) 保证串行。
+ */
+public class FrameAssembler {
+
+    private final int maxChars;
+    private final StringBuilder frame = new StringBuilder();
+    private boolean discarding;
+    private long dropped;
+
+    public FrameAssembler(int maxChars) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("maxChars must be positive");
+        }
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * 追加一个分片
+     *
+     * @return 收到最后一片时返回完整消息；消息未收完或已被丢弃时返回 null
+     */
+    public String append(CharSequence data, boolean last) {
+        if (!discarding) {
+            if (frame.length() + data.length() > maxChars) {
+                frame.setLength(0);
+                discarding = true;
+                dropped++;
+            } else {
+                frame.append(data);
+            }
+        }
+        if (!last) {
+            return null;
+        }
+        if (discarding) {
+            discarding = false;
+            return null;
+        }
+        String text = frame.toString();
+        frame.setLength(0);
+        return text;
+    }
+
+    /**
+     * 连接重建时调用，旧连接上未收完的分片不再有效
+     */
+    public void reset() {
+        frame.setLength(0);
+        discarding = false;
+    }
+
+    /**
+     * @return 累计因超长被丢弃的消息数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
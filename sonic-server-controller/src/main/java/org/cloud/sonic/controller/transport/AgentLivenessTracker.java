@@ -0,0 +1,237 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.AgentsMapper;
+import org.cloud.sonic.controller.models.domain.Agents;
+import org.cloud.sonic.controller.models.interfaces.AgentStatus;
+import org.cloud.sonic.controller.services.AgentsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * agent 存活状态表
+ * <p>
+ * 在内存中记录每个 agent 最后一次收到消息的时间、WebSocket ping/pong 往返时延与状态，
+ * 只有状态真正变化时才写 agents 表，另有低频的周期性校正；
+ * 定时清扫心跳超时的 agent 并将其置为离线。
+ */
+@Slf4j
+@Component
+public class AgentLivenessTracker {
+
+    @Autowired
+    private AgentsMapper agentsMapper;
+    @Autowired
+    private AgentsService agentsService;
+    @Autowired
+    private AgentSessionRegistry agentSessionRegistry;
+
+    @Value("${sonic.transport.liveness.timeout-ms:90000}")
+    private long timeoutMillis;
+
+    private final Map<Integer, Liveness> table = new ConcurrentHashMap<>();
+
+    /**
+     * 收到 agent 任意消息
+     */
+    public void touch(int agentId) {
+        Liveness liveness = table.get(agentId);
+        if (liveness != null) {
+            liveness.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * agentInfo 注册完成，数据库中已是在线状态；会话已不在本实例时忽略
+     */
+    public void online(int agentId) {
+        if (agentSessionRegistry.getSession(agentId) == null) {
+            return;
+        }
+        Liveness liveness = table.computeIfAbsent(agentId, Liveness::new);
+        liveness.lastSeen = System.currentTimeMillis();
+        liveness.status = AgentStatus.ONLINE;
+        liveness.persistedStatus = AgentStatus.ONLINE;
+        if (agentSessionRegistry.getSession(agentId) == null) {
+            table.remove(agentId, liveness);
+        }
+    }
+
+    /**
+     * 心跳，仅当状态由非在线变为在线时写库
+     * <p>
+     * 心跳在接收线程中排队处理，可能晚于 onClose 执行，本实例已没有该 agent 的会话时直接忽略，
+     * 避免把已断开（或已连到其他实例）的 agent 重新写成在线
+     */
+    public void heartBeat(int agentId) {
+        if (agentSessionRegistry.getSession(agentId) == null) {
+            return;
+        }
+        Liveness liveness = table.computeIfAbsent(agentId, Liveness::new);
+        liveness.lastSeen = System.currentTimeMillis();
+        liveness.status = AgentStatus.ONLINE;
+        if (agentSessionRegistry.getSession(agentId) == null) {
+            // 与 onClose 并发，会话已撤销
+            table.remove(agentId, liveness);
+            return;
+        }
+        if (liveness.persistedStatus != AgentStatus.ONLINE) {
+            agentsMapper.update(null, new LambdaUpdateWrapper<Agents>()
+                    .eq(Agents::getId, agentId)
+                    .set(Agents::getStatus, AgentStatus.ONLINE));
+            liveness.persistedStatus = AgentStatus.ONLINE;
+        }
+    }
+
+    /**
+     * 会话断开，由调用方负责下线落库
+     */
+    public void remove(int agentId) {
+        table.remove(agentId);
+    }
+
+    /**
+     * 收到 WebSocket PONG，负载为发送 PING 时的 nanoTime
+     */
+    public void pong(Session session, ByteBuffer payload) {
+        Integer agentId = agentSessionRegistry.getAgentId(session);
+        if (agentId == null || payload.remaining() < Long.BYTES) {
+            return;
+        }
+        Liveness liveness = table.get(agentId);
+        if (liveness != null) {
+            liveness.rttMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - payload.getLong());
+            liveness.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    public Liveness get(int agentId) {
+        return table.get(agentId);
+    }
+
+    public List<Liveness> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(table.values()));
+    }
+
+    /**
+     * 发送 PING 测量时延，并清扫超时的 agent
+     */
+    @Scheduled(fixedDelayString = "${sonic.transport.liveness.sweep-ms:10000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (Liveness liveness : table.values()) {
+            Session session = agentSessionRegistry.getSession(liveness.agentId);
+            if (now - liveness.lastSeen > timeoutMillis) {
+                log.warn("Agent: {} no heartbeat for {} ms, mark offline.", liveness.agentId, now - liveness.lastSeen);
+                table.remove(liveness.agentId, liveness);
+                liveness.status = AgentStatus.OFFLINE;
+                // 本实例已没有会话时 onClose 已经完成下线，agent 可能已连到其他实例，不再写库
+                if (session != null && session.isOpen()) {
+                    // 由 onClose 完成下线与路由撤销
+                    try {
+                        session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "heartbeat timeout"));
+                    } catch (IOException e) {
+                        log.error("Agent: {} close session failed: {}", liveness.agentId, e.getMessage());
+                        agentsService.offLine(liveness.agentId);
+                    }
+                }
+                continue;
+            }
+            if (session != null && session.isOpen()) {
+                try {
+                    ByteBuffer payload = ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime());
+                    payload.flip();
+                    session.getAsyncRemote().sendPing(payload);
+                } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+                    log.debug("Agent: {} send ping failed: {}", liveness.agentId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 低频校正：把内存中在线的 agent 一次性写回数据库，修正被其他实例或人工改动的状态
+     */
+    @Scheduled(fixedDelayString = "${sonic.transport.liveness.flush-ms:300000}")
+    public void flush() {
+        List<Integer> onlineIds = new ArrayList<>();
+        for (Liveness liveness : table.values()) {
+            if (liveness.status == AgentStatus.ONLINE) {
+                onlineIds.add(liveness.agentId);
+            }
+        }
+        if (onlineIds.isEmpty()) {
+            return;
+        }
+        int updated = agentsMapper.update(null, new LambdaUpdateWrapper<Agents>()
+                .in(Agents::getId, onlineIds)
+                .ne(Agents::getStatus, AgentStatus.ONLINE)
+                .set(Agents::getStatus, AgentStatus.ONLINE));
+        if (updated > 0) {
+            log.info("Liveness flush corrected {} agents to online.", updated);
+        }
+    }
+
+    public static final class Liveness {
+        private final int agentId;
+        private volatile long lastSeen;
+        private volatile long rttMillis = -1;
+        private volatile int status = AgentStatus.ONLINE;
+        private volatile int persistedStatus = -1;
+
+        private Liveness(int agentId) {
+            this.agentId = agentId;
+            this.lastSeen = System.currentTimeMillis();
+        }
+
+        public int getAgentId() {
+            return agentId;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return 最近一次 ping/pong 往返时延（毫秒），未测量时为 -1
+         */
+        public long getRttMillis() {
+            return rttMillis;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * agent 出站消息的持久发件箱
+ * <p>
+ * 对 suite、forceStopSuite、settings 等不能丢的消息，下发前按 agent 编号（seq）并保留，
+ * agent 回复 {"msg":"ack","outbox":"...","seq":n} 后删除 seq 及之前的消息；
+ * agent 重新上报 agentInfo 时把未确认的消息重发一遍，由 agent 按 outbox + seq 去重。
+ * <p>
+ * outbox 为发出消息的 controller 实例 id，ack 落在其他实例时会转发回来。
+ * 内存中每个 agent 最多保留 capacity 条，超出时写入 spill-dir（未配置则丢弃最旧的），
+ * 超过 ttl-ms 的消息不再重发。需要 agent 支持 ack 与去重，默认关闭。
+ * 消息都已确认或过期的发件箱在清理时移除。
+ */
+@Slf4j
+@Component
+public class AgentOutbox {
+
+    private static final String LOCAL = "local";
+
+    @Autowired
+    private AgentRouteTable agentRouteTable;
+
+    @Value("${sonic.transport.outbox.enable:false}")
+    private boolean enable;
+
+    @Value("${sonic.transport.outbox.types:suite,forceStopSuite,settings}")
+    private Set<String> types = new HashSet<>();
+
+    @Value("${sonic.transport.outbox.capacity:200}")
+    private int capacity;
+
+    @Value("${sonic.transport.outbox.ttl-ms:1800000}")
+    private long ttlMillis;
+
+    @Value("${sonic.transport.outbox.spill-dir:}")
+    private String spillDir;
+
+    private final ConcurrentMap<Integer, Box> boxes = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enable;
+    }
+
+    public boolean isDurable(String msgType) {
+        return enable && msgType != null && types.contains(msgType);
+    }
+
+    /**
+     * 当前实例的发件箱 id
+     */
+    public String outboxId() {
+        String id = agentRouteTable.localInstanceId();
+        return id == null ? LOCAL : id;
+    }
+
+    public boolean isLocal(String outbox) {
+        return outbox == null || outbox.equals(outboxId());
+    }
+
+    /**
+     * 编号并保留一条消息
+     *
+     * @return 带 outbox 与 seq 的副本，原对象不变（同一对象可能发给多个 agent）
+     */
+    public JSONObject append(int agentId, JSONObject message) {
+        JSONObject stamped = (JSONObject) message.clone();
+        Box box = boxes.computeIfAbsent(agentId, Box::new);
+        synchronized (box) {
+            if (box.removed) {
+                // 清理时刚被移除，换用新的发件箱
+                return append(agentId, message);
+            }
+            stamped.put("outbox", outboxId());
+            stamped.put("seq", ++box.seq);
+            box.memory.addLast(new Entry(box.seq, System.currentTimeMillis(), stamped.toJSONString()));
+            if (box.memory.size() > capacity) {
+                Entry oldest = box.memory.pollFirst();
+                if (!spill(box, oldest)) {
+                    log.warn("Agent: {} outbox full, seq: {} dropped.", agentId, oldest.seq);
+                }
+            }
+        }
+        return stamped;
+    }
+
+    /**
+     * agent 确认收到 seq 及之前的消息
+     */
+    public void ack(int agentId, long seq) {
+        Box box = boxes.get(agentId);
+        if (box == null) {
+            return;
+        }
+        synchronized (box) {
+            if (seq <= box.acked) {
+                return;
+            }
+            box.acked = seq;
+            while (!box.memory.isEmpty() && box.memory.peekFirst().seq <= seq) {
+                box.memory.pollFirst();
+            }
+            if (box.spilled) {
+                List<Entry> rest = readSpill(box);
+                deleteSpill(box);
+                for (Entry e : rest) {
+                    spill(box, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 需要重发的消息，按 seq 排序，已过期的不再返回
+     */
+    public List<JSONObject> pending(int agentId) {
+        List<JSONObject> result = new ArrayList<>();
+        if (!enable) {
+            return result;
+        }
+        // 重启后只剩磁盘上的消息，也要能找到
+        Box box = spillDir.isEmpty() ? boxes.get(agentId) : boxes.computeIfAbsent(agentId, Box::new);
+        if (box == null) {
+            return result;
+        }
+        long expire = System.currentTimeMillis() - ttlMillis;
+        synchronized (box) {
+            List<Entry> entries = box.spilled ? readSpill(box) : new ArrayList<>();
+            entries.addAll(box.memory);
+            for (Entry e : entries) {
+                if (e.seq > box.acked && e.time >= expire) {
+                    result.add(JSON.parseObject(e.message));
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size(int agentId) {
+        Box box = boxes.get(agentId);
+        if (box == null) {
+            return 0;
+        }
+        synchronized (box) {
+            return box.memory.size();
+        }
+    }
+
+    /**
+     * 清理过期消息，并移除已没有未确认消息的发件箱
+     */
+    @Scheduled(fixedDelayString = "${sonic.transport.outbox.purge-ms:60000}")
+    public void purge() {
+        long now = System.currentTimeMillis();
+        long expire = now - ttlMillis;
+        for (Box box : boxes.values()) {
+            synchronized (box) {
+                while (!box.memory.isEmpty() && box.memory.peekFirst().time < expire) {
+                    box.memory.pollFirst();
+                }
+                if (box.spilled) {
+                    List<Entry> rest = readSpill(box);
+                    deleteSpill(box);
+                    for (Entry e : rest) {
+                        if (e.time >= expire) {
+                            spill(box, e);
+                        }
+                    }
+                }
+                // seq 以毫秒时间为起点，已落后于当前时间时重建的发件箱编号仍会更大
+                if (box.memory.isEmpty() && !box.spilled && box.seq < now) {
+                    box.removed = true;
+                    boxes.remove(box.agentId, box);
+                }
+            }
+        }
+    }
+
+    /**
+     * 停机时把内存中未确认的消息写盘
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!enable || spillDir.isEmpty()) {
+            return;
+        }
+        for (Box box : boxes.values()) {
+            synchronized (box) {
+                while (!box.memory.isEmpty()) {
+                    spill(box, box.memory.pollFirst());
+                }
+            }
+        }
+    }
+
+    private Path spillPath(Box box) {
+        return Paths.get(spillDir, "agent-" + box.agentId + ".outbox");
+    }
+
+    private boolean spill(Box box, Entry entry) {
+        if (spillDir.isEmpty()) {
+            return false;
+        }
+        Path path = spillPath(box);
+        try {
+            Files.createDirectories(path.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(entry.seq + "\t" + entry.time + "\t" + entry.message);
+                writer.newLine();
+            }
+            box.spilled = true;
+            return true;
+        } catch (IOException e) {
+            log.error("Agent: {} outbox spill failed: {}", box.agentId, e.getMessage());
+            return false;
+        }
+    }
+
+    private List<Entry> readSpill(Box box) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(spillPath(box), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length == 3 && Long.parseLong(parts[0]) > box.acked) {
+                    entries.add(new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("Agent: {} outbox spill read failed: {}", box.agentId, e.getMessage());
+        }
+        return entries;
+    }
+
+    private void deleteSpill(Box box) {
+        try {
+            Files.deleteIfExists(spillPath(box));
+        } catch (IOException e) {
+            log.error("Agent: {} outbox spill delete failed: {}", box.agentId, e.getMessage());
+        }
+        box.spilled = false;
+    }
+
+    private final class Box {
+        private final int agentId;
+        private final Deque<Entry> memory = new ArrayDeque<>();
+        /**
+         * 以毫秒时间为起点，controller 重启后编号仍递增，agent 不会误判为重复
+         */
+        private long seq = System.currentTimeMillis();
+        private long acked;
+        private boolean spilled;
+        private boolean removed;
+
+        private Box(int agentId) {
+            this.agentId = agentId;
+            spilled = !spillDir.isEmpty() && Files.exists(spillPath(this));
+        }
+    }
+
+    private static final class Entry {
+        private final long seq;
+        private final long time;
+        private final String message;
+
+        private Entry(long seq, long time, String message) {
+            this.seq = seq;
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
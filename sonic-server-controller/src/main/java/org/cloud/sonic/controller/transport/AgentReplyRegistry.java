@@ -0,0 +1,95 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 等待 agent 应答的下发指令
+ * <p>
+ * 下发时带上 requestId，agent 回复 {"msg":"reply","requestId":"..."} 后完成对应的 future；
+ * 处理失败时应答中带上 error（原因）或 status（不为 ok），由调用方判断；
+ * 超时由 {@link CompletableFuture#orTimeout} 处理，等待方不占用线程。
+ */
+@Slf4j
+@Component
+public class AgentReplyRegistry {
+
+    @Value("${sonic.transport.reply.timeout-ms:10000}")
+    private long defaultTimeoutMillis;
+
+    @Value("${sonic.transport.reply.max-pending:10000}")
+    private int maxPending;
+
+    private final ConcurrentMap<String, CompletableFuture<JSONObject>> pending = new ConcurrentHashMap<>();
+
+    public String newRequestId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * 登记一个待应答的请求
+     *
+     * @param timeoutMillis 超时时间，小于等于 0 时使用默认值，超时后 future 以 TimeoutException 结束
+     */
+    public CompletableFuture<JSONObject> register(String requestId, long timeoutMillis) {
+        if (pending.size() >= maxPending) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("too many pending agent requests"));
+        }
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+        future.orTimeout(timeoutMillis > 0 ? timeoutMillis : defaultTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((reply, e) -> pending.remove(requestId, future));
+        return future;
+    }
+
+    /**
+     * 收到 agent 应答
+     *
+     * @return 是否有对应的等待方，已超时或未知的 requestId 返回 false
+     */
+    public boolean complete(String requestId, JSONObject reply) {
+        if (requestId == null) {
+            return false;
+        }
+        CompletableFuture<JSONObject> future = pending.remove(requestId);
+        if (future == null) {
+            log.debug("Reply: {} has no waiter, maybe timeout.", requestId);
+            return false;
+        }
+        return future.complete(reply);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.mapper.AgentsMapper;
+import org.cloud.sonic.controller.models.domain.Agents;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * agent 路由表
+ * <p>
+ * agent 上报 agentInfo 时把当前 controller 实例 id 写入 agents.controller_instance，
+ * 断开时撤销，{@link TransportWorker} 据此只把指令发给持有连接的实例。
+ * 同时缓存服务发现结果与 agent 所属实例，避免每次下发都查询注册中心和数据库。
+ */
+@Slf4j
+@Component
+public class AgentRouteTable {
+
+    public static final String CONTROLLER_SERVICE = "sonic-server-controller";
+
+    @Autowired
+    private AgentsMapper agentsMapper;
+    @Autowired
+    private DiscoveryClient discoveryClient;
+    @Autowired(required = false)
+    private Registration registration;
+
+    @Value("${sonic.transport.route.discovery-cache-ms:5000}")
+    private long discoveryCacheMillis;
+
+    @Value("${sonic.transport.route.owner-cache-ms:5000}")
+    private long ownerCacheMillis;
+
+    private volatile List<ServiceInstance> cachedInstances;
+    private volatile long cachedAt;
+
+    private final Map<Integer, Owner> owners = new ConcurrentHashMap<>();
+
+    /**
+     * @return 当前 controller 在注册中心的实例 id，未注册时为 null
+     */
+    public String localInstanceId() {
+        return registration == null ? null : registration.getInstanceId();
+    }
+
+    public boolean isLocal(String instanceId) {
+        return instanceId != null && instanceId.equals(localInstanceId());
+    }
+
+    /**
+     * 声明当前实例持有该 agent 的连接
+     */
+    public void publish(int agentId) {
+        String local = localInstanceId();
+        if (local == null) {
+            return;
+        }
+        agentsMapper.update(null, new LambdaUpdateWrapper<Agents>()
+                .eq(Agents::getId, agentId)
+                .set(Agents::getControllerInstance, local));
+        owners.remove(agentId);
+    }
+
+    /**
+     * 撤销路由，仅当路由仍指向当前实例时生效，避免覆盖 agent 在其他实例上的新连接
+     */
+    public void withdraw(int agentId) {
+        String local = localInstanceId();
+        if (local == null) {
+            return;
+        }
+        agentsMapper.update(null, new LambdaUpdateWrapper<Agents>()
+                .eq(Agents::getId, agentId)
+                .eq(Agents::getControllerInstance, local)
+                .set(Agents::getControllerInstance, ""));
+        owners.remove(agentId);
+    }
+
+    /**
+     * @return 持有该 agent 连接的实例 id，未知时为 null；结果在 owner-cache-ms 内复用
+     */
+    public String ownerOf(int agentId) {
+        long now = System.currentTimeMillis();
+        Owner owner = owners.get(agentId);
+        if (owner == null || now - owner.cachedAt > ownerCacheMillis) {
+            Agents agents = agentsMapper.selectOne(new LambdaQueryWrapper<Agents>()
+                    .select(Agents::getId, Agents::getControllerInstance)
+                    .eq(Agents::getId, agentId));
+            String instanceId = agents == null || agents.getControllerInstance() == null
+                    || agents.getControllerInstance().isEmpty() ? null : agents.getControllerInstance();
+            owner = new Owner(instanceId, now);
+            owners.put(agentId, owner);
+        }
+        return owner.instanceId;
+    }
+
+    /**
+     * 丢弃该 agent 的所属实例缓存，用于转发失败后（agent 可能已迁到其他实例）
+     */
+    public void invalidateOwner(int agentId) {
+        owners.remove(agentId);
+    }
+
+    /**
+     * 获取所有 controller 实例，结果在 discovery-cache-ms 内复用
+     */
+    public List<ServiceInstance> controllerInstances() {
+        List<ServiceInstance> instances = cachedInstances;
+        long now = System.currentTimeMillis();
+        if (instances == null || now - cachedAt > discoveryCacheMillis) {
+            instances = discoveryClient.getInstances(CONTROLLER_SERVICE);
+            cachedInstances = instances;
+            cachedAt = now;
+        }
+        return instances;
+    }
+
+    public ServiceInstance findInstance(String instanceId) {
+        for (ServiceInstance i : controllerInstances()) {
+            if (Objects.equals(i.getInstanceId(), instanceId)) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 强制下次重新拉取服务发现结果，用于目标实例请求失败后
+     */
+    public void invalidate() {
+        cachedInstances = null;
+    }
+
+    private static final class Owner {
+        private final String instanceId;
+        private final long cachedAt;
+
+        private Owner(String instanceId, long cachedAt) {
+            this.instanceId = instanceId;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agent 会话注册表
+ * <p>
+ * 同时维护 agentId -> 会话 与 sessionId -> agentId 两个索引，
+ * 读取无锁，重连时原子替换旧会话，断开时 O(1) 反查所属 agent。
+ */
+@Slf4j
+@Component
+public class AgentSessionRegistry {
+
+    private final ConcurrentMap<Integer, AgentSession> byAgentId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> bySessionId = new ConcurrentHashMap<>();
+    private final AtomicLong replaceCount = new AtomicLong();
+
+    /**
+     * 注册 agent 会话，若该 agent 已存在其他会话则原子替换并关闭旧会话
+     *
+     * @param agentId agent id
+     * @param session 新会话
+     * @return 被替换掉的旧会话，没有则为 null
+     */
+    public AgentSession register(int agentId, Session session) {
+        AgentSession current = new AgentSession(agentId, session, System.currentTimeMillis());
+        bySessionId.put(session.getId(), agentId);
+        AgentSession old = byAgentId.put(agentId, current);
+        if (old == null || old.getSession() == session) {
+            return null;
+        }
+        bySessionId.remove(old.getSession().getId(), agentId);
+        replaceCount.incrementAndGet();
+        try {
+            old.getSession().close();
+        } catch (IOException e) {
+            log.warn("Agent: {} close replaced session {} failed: {}", agentId, old.getSession().getId(), e.getMessage());
+        }
+        return old;
+    }
+
+    /**
+     * 注销会话，只有当它仍是该 agent 的当前会话时才会移除
+     *
+     * @param session 关闭的会话
+     * @return 会话所属且已下线的 agentId；会话已被替换或未注册时为 null
+     */
+    public Integer unregister(Session session) {
+        Integer agentId = bySessionId.remove(session.getId());
+        if (agentId == null) {
+            return null;
+        }
+        AgentSession current = byAgentId.get(agentId);
+        if (current != null && current.getSession() == session && byAgentId.remove(agentId, current)) {
+            return agentId;
+        }
+        return null;
+    }
+
+    public Session getSession(int agentId) {
+        AgentSession agentSession = byAgentId.get(agentId);
+        return agentSession == null ? null : agentSession.getSession();
+    }
+
+    public AgentSession get(int agentId) {
+        return byAgentId.get(agentId);
+    }
+
+    public Integer getAgentId(Session session) {
+        return bySessionId.get(session.getId());
+    }
+
+    /**
+     * @return agent 当前会话的连接时间戳，未连接时为 0
+     */
+    public long getConnectTime(int agentId) {
+        AgentSession agentSession = byAgentId.get(agentId);
+        return agentSession == null ? 0 : agentSession.getConnectTime();
+    }
+
+    public boolean isOnline(int agentId) {
+        return byAgentId.containsKey(agentId);
+    }
+
+    public int size() {
+        return byAgentId.size();
+    }
+
+    /**
+     * @return 重连时替换旧会话的累计次数
+     */
+    public long getReplaceCount() {
+        return replaceCount.get();
+    }
+
+    public Collection<AgentSession> sessions() {
+        return Collections.unmodifiableCollection(byAgentId.values());
+    }
+
+    public static final class AgentSession {
+        private final int agentId;
+        private final Session session;
+        private final long connectTime;
+        /**
+         * 尚未收到 batch 时为 -1，序号可以从 0 开始
+         */
+        private final AtomicLong lastBatchSeq = new AtomicLong(-1);
+
+        AgentSession(int agentId, Session session, long connectTime) {
+            this.agentId = agentId;
+            this.session = session;
+            this.connectTime = connectTime;
+        }
+
+        public int getAgentId() {
+            return agentId;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public long getConnectTime() {
+            return connectTime;
+        }
+
+        public long getLastBatchSeq() {
+            return lastBatchSeq.get();
+        }
+
+        /**
+         * 记录 batch 序号，序号在每次连接内单调递增
+         *
+         * @return false 表示序号不大于已处理的序号，是重复投递
+         */
+        public boolean acceptBatchSeq(long seq) {
+            long last;
+            do {
+                last = lastBatchSeq.get();
+                if (seq <= last) {
+                    return false;
+                }
+            } while (!lastBatchSeq.compareAndSet(last, seq));
+            if (last >= 0 && seq != last + 1) {
+                log.warn("Agent: {} batch seq jump from {} to {}", agentId, last, seq);
+            }
+            return true;
+        }
+    }
+}
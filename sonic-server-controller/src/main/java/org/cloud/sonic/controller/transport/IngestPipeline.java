@@ -0,0 +1,164 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * agent 上行消息处理流水线
+ * <p>
+ * WebSocket 线程只做解析，按 msg 类型分到不同通道，再在通道内按 agentId 固定到某个单线程执行器上，
+ * 保证同一 agent 同一通道内的消息按到达顺序处理。
+ * 队列有界，满了阻塞投递线程，把压力反馈给该 agent 的连接。
+ */
+@Slf4j
+@Component
+public class IngestPipeline {
+
+    public enum Lane {
+        /**
+         * 对时延敏感的请求应答，如 findSteps、generateStep
+         */
+        CONTROL,
+        /**
+         * 设备与 agent 状态，如 battery、deviceDetail、heartBeat
+         */
+        DEVICE,
+        /**
+         * 高频的测试结果，如 step、perform、status
+         */
+        RESULT
+    }
+
+    @Value("${sonic.transport.ingest.control-threads:4}")
+    private int controlThreads;
+
+    @Value("${sonic.transport.ingest.device-threads:4}")
+    private int deviceThreads;
+
+    @Value("${sonic.transport.ingest.result-threads:8}")
+    private int resultThreads;
+
+    @Value("${sonic.transport.ingest.queue-capacity:2000}")
+    private int queueCapacity;
+
+    private final Map<Lane, ThreadPoolExecutor[]> lanes = new EnumMap<>(Lane.class);
+
+    @PostConstruct
+    public void init() {
+        lanes.put(Lane.CONTROL, createLane(Lane.CONTROL, controlThreads));
+        lanes.put(Lane.DEVICE, createLane(Lane.DEVICE, deviceThreads));
+        lanes.put(Lane.RESULT, createLane(Lane.RESULT, resultThreads));
+    }
+
+    /**
+     * 根据消息类型选择通道
+     */
+    public static Lane laneOf(String msg) {
+        return switch (msg) {
+            case "step", "perform", "record", "status", "subResultCount" -> Lane.RESULT;
+            case "findSteps", "generateStep", "debugUser", "errCall", "reply", "ack" -> Lane.CONTROL;
+            default -> Lane.DEVICE;
+        };
+    }
+
+    /**
+     * 投递消息处理任务
+     *
+     * @param agentId 用于选择执行器，保证同一 agent 的顺序
+     */
+    public void dispatch(String msg, int agentId, Runnable task) {
+        ThreadPoolExecutor[] executors = lanes.get(laneOf(msg));
+        ThreadPoolExecutor executor = executors[Math.floorMod(agentId, executors.length)];
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("Handle agent: {} msg: {} failed.", agentId, msg, e);
+            }
+        });
+    }
+
+    /**
+     * @return 通道内所有执行器排队中的任务数
+     */
+    public int queueSize(Lane lane) {
+        int size = 0;
+        for (ThreadPoolExecutor executor : lanes.get(lane)) {
+            size += executor.getQueue().size();
+        }
+        return size;
+    }
+
+    private ThreadPoolExecutor[] createLane(Lane lane, int threads) {
+        ThreadPoolExecutor[] executors = new ThreadPoolExecutor[Math.max(1, threads)];
+        String prefix = "transport-" + lane.name().toLowerCase() + "-";
+        for (int i = 0; i < executors.length; i++) {
+            String name = prefix + i;
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    (r, e) -> {
+                        // 队列已满时阻塞投递线程，而不是丢弃或在调用线程执行（会打乱顺序）
+                        if (e.isShutdown()) {
+                            log.warn("Ingest lane: {} is shut down, task dropped.", name);
+                            return;
+                        }
+                        try {
+                            e.getQueue().put(r);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+        }
+        return executors;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor[] executors : lanes.values()) {
+            for (ThreadPoolExecutor executor : executors) {
+                executor.shutdown();
+            }
+        }
+        for (ThreadPoolExecutor[] executors : lanes.values()) {
+            for (ThreadPoolExecutor executor : executors) {
+                try {
+                    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                        log.warn("Ingest executor did not drain in time, {} tasks left.", executor.getQueue().size());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
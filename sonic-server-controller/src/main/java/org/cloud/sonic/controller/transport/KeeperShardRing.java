@@ -0,0 +1,138 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 设备保活连接的分片环
+ * <p>
+ * 以注册中心中存活的 controller 实例为节点、udId 为键做一致性哈希，每台设备只由一个实例维持连接。
+ * 实例加入或退出时只有相邻区间的设备迁移。未注册到注册中心或关闭分片时，当前实例负责全部设备。
+ */
+@Slf4j
+@Component
+public class KeeperShardRing {
+
+    @Autowired
+    private AgentRouteTable agentRouteTable;
+
+    @Value("${sonic.websocket.keeper.shard.enable:true}")
+    private boolean enabled;
+
+    @Value("${sonic.websocket.keeper.shard.virtual-nodes:160}")
+    private int virtualNodes;
+
+    private volatile Ring ring;
+
+    /**
+     * @return 当前实例是否负责该设备
+     */
+    public boolean owns(String udId) {
+        String owner = ownerOf(udId);
+        return owner == null || agentRouteTable.isLocal(owner);
+    }
+
+    /**
+     * @return 负责该设备的实例 id，不分片时为 null
+     */
+    public String ownerOf(String udId) {
+        Ring r = current();
+        return r == null ? null : r.locate(udId);
+    }
+
+    public ServiceInstance ownerInstance(String udId) {
+        String owner = ownerOf(udId);
+        return owner == null ? null : agentRouteTable.findInstance(owner);
+    }
+
+    /**
+     * 按最新的服务发现结果重建环
+     *
+     * @return 节点是否发生变化
+     */
+    public boolean refresh() {
+        Ring old = ring;
+        Ring r = current();
+        return !Objects.equals(old == null ? null : old.nodes, r == null ? null : r.nodes);
+    }
+
+    private Ring current() {
+        if (!enabled || agentRouteTable.localInstanceId() == null) {
+            return null;
+        }
+        List<String> nodes = new ArrayList<>();
+        for (ServiceInstance i : agentRouteTable.controllerInstances()) {
+            if (i.getInstanceId() != null) {
+                nodes.add(i.getInstanceId());
+            }
+        }
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        Collections.sort(nodes);
+        Ring r = ring;
+        if (r == null || !r.nodes.equals(nodes)) {
+            r = new Ring(nodes, virtualNodes);
+            ring = r;
+            log.info("keeper shard ring rebuilt, nodes: {}", nodes);
+        }
+        return r;
+    }
+
+    static final class Ring {
+        private final List<String> nodes;
+        private final TreeMap<Long, String> points = new TreeMap<>();
+
+        Ring(List<String> nodes, int virtualNodes) {
+            this.nodes = List.copyOf(nodes);
+            for (String node : nodes) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    points.put(hash(node + "#" + i), node);
+                }
+            }
+        }
+
+        String locate(String key) {
+            Map.Entry<Long, String> e = points.ceilingEntry(hash(key));
+            return e == null ? points.firstEntry().getValue() : e.getValue();
+        }
+
+        private static long hash(String key) {
+            try {
+                byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+                long h = 0;
+                for (int i = 0; i < 8; i++) {
+                    h = (h << 8) | (d[i] & 0xff);
+                }
+                return h;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 出站调度：为每个 agent 会话维护一个 {@link OutboundMailbox}
+ */
+@Component
+public class OutboundDispatcher {
+
+    @Value("${sonic.transport.outbound.capacity:1000}")
+    private int capacity;
+
+    @Value("${sonic.transport.outbound.overflow-policy:DROP_OLDEST}")
+    private OutboundMailbox.OverflowPolicy overflowPolicy;
+
+    /**
+     * 可合并的消息类型，队列中未发出的同类消息会被新消息覆盖
+     */
+    @Value("${sonic.transport.outbound.coalesce:settings}")
+    private Set<String> coalesceTypes = new HashSet<>();
+
+    @Autowired
+    private TransportMetrics transportMetrics;
+
+    private final ConcurrentMap<String, OutboundMailbox> mailboxes = new ConcurrentHashMap<>();
+    private final OutboundStats stats = new OutboundStats();
+    private final ExecutorService executor;
+
+    public OutboundDispatcher() {
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "transport-outbound-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void init() {
+        transportMetrics.bindOutbound(this);
+    }
+
+    /**
+     * 投递消息，立即返回
+     *
+     * @param msgType 消息的 msg 字段，用于判断是否可合并，可为 null
+     */
+    public boolean send(Session session, String message, String msgType) {
+        OutboundMailbox mailbox = mailboxes.computeIfAbsent(session.getId(),
+                k -> new OutboundMailbox(session, capacity, overflowPolicy, executor, stats,
+                        transportMetrics.outboundListener(session)));
+        String coalesceKey = msgType != null && coalesceTypes.contains(msgType) ? msgType : null;
+        return mailbox.offer(message, coalesceKey);
+    }
+
+    /**
+     * 会话关闭时释放邮箱
+     */
+    public void release(Session session) {
+        mailboxes.remove(session.getId());
+    }
+
+    public int queueDepth(Session session) {
+        OutboundMailbox mailbox = mailboxes.get(session.getId());
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+    public int totalQueueDepth() {
+        int total = 0;
+        for (OutboundMailbox mailbox : mailboxes.values()) {
+            total += mailbox.size();
+        }
+        return total;
+    }
+
+    public int maxQueueDepth() {
+        int max = 0;
+        for (OutboundMailbox mailbox : mailboxes.values()) {
+            max = Math.max(max, mailbox.size());
+        }
+        return max;
+    }
+
+    public OutboundStats getStats() {
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+/**
+ * 单个会话的出站邮箱
+ * <p>
+ * 调用方只负责入队，由异步 remote 逐条发送，上一条发送完成后再发下一条，
+ * 慢连接只会让自己的队列变长，不会阻塞调用线程。
+ * 队列有界，满了按 {@link OverflowPolicy} 处理；带 coalesceKey 的消息会覆盖队列中尚未发出的同类消息。
+ */
+@Slf4j
+public class OutboundMailbox {
+
+    public enum OverflowPolicy {
+        /**
+         * 丢弃队头最旧的消息
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃新消息
+         */
+        DROP_NEWEST,
+        /**
+         * 关闭会话，由 agent 重连
+         */
+        CLOSE
+    }
+
+    /**
+     * 单条消息发送成功后的回调，用于按会话统计
+     */
+    @FunctionalInterface
+    public interface SendListener {
+        void onSent(int length, long sendNanos);
+    }
+
+    private final Session session;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Executor executor;
+    private final OutboundStats stats;
+    private final SendListener sendListener;
+
+    private final Deque<Envelope> queue = new ArrayDeque<>();
+    private boolean sending;
+
+    OutboundMailbox(Session session, int capacity, OverflowPolicy overflowPolicy, Executor executor, OutboundStats stats) {
+        this(session, capacity, overflowPolicy, executor, stats, null);
+    }
+
+    OutboundMailbox(Session session, int capacity, OverflowPolicy overflowPolicy, Executor executor, OutboundStats stats,
+                    SendListener sendListener) {
+        this.session = session;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+        this.stats = stats;
+        this.sendListener = sendListener;
+    }
+
+    /**
+     * 消息入队
+     *
+     * @param message     文本消息
+     * @param coalesceKey 合并键，不为 null 时覆盖队列中相同键的旧消息
+     * @return 是否已入队
+     */
+    public boolean offer(String message, String coalesceKey) {
+        synchronized (this) {
+            if (coalesceKey != null) {
+                for (Envelope e : queue) {
+                    if (coalesceKey.equals(e.coalesceKey)) {
+                        e.message = message;
+                        e.enqueueTime = System.nanoTime();
+                        stats.coalesced();
+                        return true;
+                    }
+                }
+            }
+            if (queue.size() >= capacity) {
+                stats.dropped();
+                switch (overflowPolicy) {
+                    case DROP_OLDEST -> queue.pollFirst();
+                    case DROP_NEWEST -> {
+                        return false;
+                    }
+                    case CLOSE -> {
+                        queue.clear();
+                        executor.execute(this::closeOverflow);
+                        return false;
+                    }
+                }
+            }
+            queue.addLast(new Envelope(message, coalesceKey));
+            stats.queued();
+            if (sending) {
+                return true;
+            }
+            sending = true;
+        }
+        executor.execute(this::drain);
+        return true;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    private void drain() {
+        Envelope next;
+        synchronized (this) {
+            next = queue.pollFirst();
+            if (next == null || !session.isOpen()) {
+                queue.clear();
+                sending = false;
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        long enqueueTime = next.enqueueTime;
+        int length = next.message.length();
+        try {
+            session.getAsyncRemote().sendText(next.message, result -> {
+                long end = System.nanoTime();
+                if (result.isOK()) {
+                    stats.sent(length, end - start, end - enqueueTime);
+                    if (sendListener != null) {
+                        sendListener.onSent(length, end - start);
+                    }
+                } else {
+                    stats.failed();
+                    log.error("WebSocket send msg failed: {}", result.getException() == null ? "" : result.getException().getMessage());
+                }
+                // 换到发送线程池继续，避免同步回调时递归过深
+                executor.execute(this::drain);
+            });
+        } catch (IllegalStateException e) {
+            stats.failed();
+            log.error("WebSocket send msg failed...");
+            synchronized (this) {
+                queue.clear();
+                sending = false;
+            }
+        }
+    }
+
+    private void closeOverflow() {
+        log.warn("Session: {} outbound queue overflow, closing.", session.getId());
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "outbound queue overflow"));
+        } catch (IOException e) {
+            log.error("Session: {} close failed: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private static final class Envelope {
+        private String message;
+        private final String coalesceKey;
+        private long enqueueTime;
+
+        private Envelope(String message, String coalesceKey) {
+            this.message = message;
+            this.coalesceKey = coalesceKey;
+            this.enqueueTime = System.nanoTime();
+        }
+    }
+}
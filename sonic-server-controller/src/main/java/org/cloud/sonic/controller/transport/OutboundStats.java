@@ -0,0 +1,114 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 出站发送统计，所有会话共享
+ */
+public class OutboundStats {
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAccumulator maxSendNanos = new LongAccumulator(Math::max, 0);
+
+    void queued() {
+        queued.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    /**
+     * @param length     消息长度
+     * @param sendNanos  写出耗时
+     * @param totalNanos 从入队到写出完成的耗时
+     */
+    void sent(int length, long sendNanos, long totalNanos) {
+        sent.increment();
+        sentBytes.add(length);
+        this.sendNanos.add(sendNanos);
+        queueNanos.add(totalNanos);
+        maxSendNanos.accumulate(sendNanos);
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return 平均写出耗时（毫秒）
+     */
+    public double getAvgSendMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : (double) sendNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return 平均端到端耗时，含排队时间（毫秒）
+     */
+    public double getAvgLatencyMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : (double) queueNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return 自上次读取以来最大写出耗时（毫秒），读取后清零
+     */
+    public double getMaxSendMillisAndReset() {
+        return (double) maxSendNanos.getThenReset() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.websocket.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * agent 通道的 Micrometer 指标，通过 /actuator/prometheus 暴露
+ * <p>
+ * 入站按 msg 类型统计速率与处理耗时，出站按 agent 统计字节数与发送耗时。
+ * msg 来自 agent 上报，类型数超过 {@link #MAX_MSG_TYPES} 后归入 other，避免标签无限增长。
+ */
+@Component
+public class TransportMetrics {
+
+    /**
+     * 会话 userProperties 中保存 agentId 的键，鉴权通过后写入
+     */
+    public static final String AGENT_ID = "agentId";
+
+    private static final int MAX_MSG_TYPES = 64;
+    private static final String OTHER = "other";
+    private static final String UNKNOWN = "unknown";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private AgentSessionRegistry agentSessionRegistry;
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    private final Map<String, Counter> inboundCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> handleTimers = new ConcurrentHashMap<>();
+    private final Map<String, OutboundMailbox.SendListener> outboundListeners = new ConcurrentHashMap<>();
+    private Timer parseTimer;
+    private Counter connects;
+
+    @PostConstruct
+    public void init() {
+        parseTimer = Timer.builder("sonic.transport.inbound.parse")
+                .description("JSON parse time of agent frames")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        connects = Counter.builder("sonic.transport.connects")
+                .description("Authenticated agent connections")
+                .register(meterRegistry);
+        Gauge.builder("sonic.transport.sessions", agentSessionRegistry, AgentSessionRegistry::size)
+                .description("Open agent sessions on this instance")
+                .register(meterRegistry);
+        FunctionCounter.builder("sonic.transport.sessions.replaced", agentSessionRegistry, AgentSessionRegistry::getReplaceCount)
+                .description("Sessions replaced by a reconnect of the same agent")
+                .register(meterRegistry);
+        for (IngestPipeline.Lane lane : IngestPipeline.Lane.values()) {
+            Gauge.builder("sonic.transport.ingest.queue", ingestPipeline, p -> p.queueSize(lane))
+                    .tag("lane", lane.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 出站邮箱的统计，由 {@link OutboundDispatcher} 启动时绑定
+     */
+    public void bindOutbound(OutboundDispatcher dispatcher) {
+        OutboundStats stats = dispatcher.getStats();
+        Gauge.builder("sonic.transport.outbound.queue", dispatcher, OutboundDispatcher::totalQueueDepth)
+                .register(meterRegistry);
+        Gauge.builder("sonic.transport.outbound.queue.max", dispatcher, OutboundDispatcher::maxQueueDepth)
+                .register(meterRegistry);
+        FunctionCounter.builder("sonic.transport.outbound.dropped", stats, OutboundStats::getDropped)
+                .register(meterRegistry);
+        FunctionCounter.builder("sonic.transport.outbound.coalesced", stats, OutboundStats::getCoalesced)
+                .register(meterRegistry);
+        FunctionCounter.builder("sonic.transport.outbound.failed", stats, OutboundStats::getFailed)
+                .register(meterRegistry);
+    }
+
+    public void recordParse(long nanos) {
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordConnect() {
+        connects.increment();
+    }
+
+    public void recordInbound(String msg) {
+        inboundCounters.computeIfAbsent(msgTag(inboundCounters, msg), tag -> Counter.builder("sonic.transport.inbound")
+                .description("Inbound agent messages")
+                .tag("msg", tag)
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * 消息处理耗时，不含在 {@link IngestPipeline} 中排队的时间
+     */
+    public void recordHandle(String msg, long nanos) {
+        handleTimers.computeIfAbsent(msgTag(handleTimers, msg), tag -> Timer.builder("sonic.transport.inbound.handle")
+                .description("Handler latency of inbound agent messages")
+                .tag("msg", tag)
+                .publishPercentileHistogram()
+                .register(meterRegistry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 按会话所属 agent 取出站发送的统计回调
+     */
+    public OutboundMailbox.SendListener outboundListener(Session session) {
+        Object agentId = session.getUserProperties().get(AGENT_ID);
+        String tag = agentId == null ? UNKNOWN : agentId.toString();
+        return outboundListeners.computeIfAbsent(tag, t -> {
+            DistributionSummary bytes = DistributionSummary.builder("sonic.transport.outbound.bytes")
+                    .description("Outbound message size per agent")
+                    .baseUnit("bytes")
+                    .tag("agent", t)
+                    .register(meterRegistry);
+            Timer send = Timer.builder("sonic.transport.outbound.send")
+                    .description("Outbound send latency per agent")
+                    .tag("agent", t)
+                    .register(meterRegistry);
+            return (length, sendNanos) -> {
+                bytes.record(length);
+                send.record(sendNanos, TimeUnit.NANOSECONDS);
+            };
+        });
+    }
+
+    private static String msgTag(Map<String, ?> meters, String msg) {
+        if (msg == null) {
+            return UNKNOWN;
+        }
+        return meters.containsKey(msg) || meters.size() < MAX_MSG_TYPES ? msg : OTHER;
+    }
+}
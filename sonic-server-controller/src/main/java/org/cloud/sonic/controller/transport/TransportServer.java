@@ -28,7 +28,6 @@ import org.cloud.sonic.controller.config.WsEndpointConfigure;
 import org.cloud.sonic.controller.models.domain.Agents;
 import org.cloud.sonic.controller.models.dto.ElementsDTO;
 import org.cloud.sonic.controller.models.dto.StepsDTO;
-import org.cloud.sonic.controller.models.interfaces.AgentStatus;
 import org.cloud.sonic.controller.models.interfaces.ConfType;
 import org.cloud.sonic.controller.services.*;
 import org.cloud.sonic.controller.tools.BytesTool;
@@ -38,12 +37,13 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @Component
 @Slf4j
 @ServerEndpoint(value = "/agent/{agentKey}", configurator = WsEndpointConfigure.class)
 public class TransportServer {
+    private static final String PONG = "{\"msg\":\"pong\"}";
+
     @Autowired
     private AgentsService agentsService;
     @Autowired
@@ -57,6 +57,18 @@ public class TransportServer {
 
     @Autowired
     private ConfListService confListService;
+    @Autowired
+    private AgentSessionRegistry agentSessionRegistry;
+    @Autowired
+    private AgentRouteTable agentRouteTable;
+    @Autowired
+    private OutboundDispatcher outboundDispatcher;
+    @Autowired
+    private IngestPipeline ingestPipeline;
+    @Autowired
+    private AgentLivenessTracker agentLivenessTracker;
+    @Autowired
+    private TransportMetrics transportMetrics;
 
     @OnOpen
     public void onOpen(Session session, @PathParam("agentKey") String agentKey) throws IOException {
@@ -72,10 +84,12 @@ public class TransportServer {
             JSONObject auth = new JSONObject();
             auth.put("msg", "auth");
             auth.put("result", "fail");
-            BytesTool.sendText(session, auth.toJSONString());
+            BytesTool.sendTextSync(session, auth.toJSONString());
             session.close();
         } else {
             log.info("Session: {} auth successful!", session.getId());
+            session.getUserProperties().put(TransportMetrics.AGENT_ID, authResult.getId());
+            transportMetrics.recordConnect();
             JSONObject auth = new JSONObject();
             auth.put("msg", "auth");
             auth.put("result", "pass");
@@ -83,24 +97,94 @@ public class TransportServer {
             auth.put("highTemp", authResult.getHighTemp());
             auth.put("highTempTime", authResult.getHighTempTime());
             auth.put("remoteTimeout", confListService.searchByKey(ConfType.REMOTE_DEBUG_TIMEOUT).getContent());
+            // 告知 agent 支持 batch 消息，旧版本 agent 会忽略该字段
+            auth.put("batch", true);
             BytesTool.sendText(session, auth.toJSONString());
         }
     }
 
     @OnMessage
     public void onMessage(String message, Session session) {
+        long start = System.nanoTime();
         JSONObject jsonMsg = JSON.parseObject(message);
-        if (jsonMsg.getString("msg").equals("ping")) {
-            Session agentSession = BytesTool.agentSessionMap.get(jsonMsg.getInteger("agentId"));
-            if (agentSession != null) {
-                JSONObject pong = new JSONObject();
-                pong.put("msg", "pong");
-                BytesTool.sendText(agentSession, pong.toJSONString());
+        transportMetrics.recordParse(System.nanoTime() - start);
+        if ("batch".equals(jsonMsg.getString("msg"))) {
+            onBatch(jsonMsg, session);
+            return;
+        }
+        route(jsonMsg, session);
+    }
+
+    /**
+     * 批量消息：{"msg":"batch","agentId":1,"seq":12,"msgs":[{...},{...}]}
+     * 按顺序拆成单条消息处理，子消息缺少 agentId 时沿用外层的
+     */
+    private void onBatch(JSONObject batch, Session session) {
+        Integer agentId = batch.getInteger("agentId");
+        Long seq = batch.getLong("seq");
+        if (agentId != null && seq != null) {
+            AgentSessionRegistry.AgentSession agentSession = agentSessionRegistry.get(agentId);
+            if (agentSession != null && agentSession.getSession() == session && !agentSession.acceptBatchSeq(seq)) {
+                log.warn("Agent: {} duplicate batch seq: {}, ignored.", agentId, seq);
+                return;
             }
+        }
+        JSONArray msgs = batch.getJSONArray("msgs");
+        if (msgs == null) {
             return;
         }
-        log.info("Session :{} send message: {}", session.getId(), jsonMsg);
-        switch (jsonMsg.getString("msg")) {
+        for (int i = 0; i < msgs.size(); i++) {
+            JSONObject sub = msgs.getJSONObject(i);
+            if (sub == null || sub.getString("msg") == null || "batch".equals(sub.getString("msg"))) {
+                continue;
+            }
+            if (agentId != null && !sub.containsKey("agentId")) {
+                sub.put("agentId", agentId);
+            }
+            route(sub, session);
+        }
+    }
+
+    @OnMessage
+    public void onPong(PongMessage pong, Session session) {
+        agentLivenessTracker.pong(session, pong.getApplicationData());
+    }
+
+    private void route(JSONObject jsonMsg, Session session) {
+        String msg = jsonMsg.getString("msg");
+        Integer agentId = jsonMsg.getInteger("agentId");
+        transportMetrics.recordInbound(msg);
+        if (agentId != null) {
+            agentLivenessTracker.touch(agentId);
+        }
+        if (msg.equals("ping")) {
+            // ping 一定来自当前会话，直接应答
+            BytesTool.sendText(session, PONG);
+            return;
+        }
+        // 每条消息都打 info 日志本身开销不小，吞吐情况看 sonic.transport.inbound 指标
+        if (log.isDebugEnabled()) {
+            log.debug("Session :{} send message: {}", session.getId(), jsonMsg);
+        }
+        if (msg.equals("agentInfo")) {
+            // 会话先在 IO 线程上注册，保证之后的下发能立刻找到该连接
+            agentSessionRegistry.register(agentId, session);
+        }
+        ingestPipeline.dispatch(msg, agentId == null ? 0 : agentId, () -> {
+            long start = System.nanoTime();
+            try {
+                handleMessage(msg, jsonMsg, session);
+            } finally {
+                transportMetrics.recordHandle(msg, System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * 在 {@link IngestPipeline} 的执行器上处理消息
+     */
+    private void handleMessage(String msg, JSONObject jsonMsg, Session session) {
+        switch (msg) {
             case "battery": {
                 devicesService.refreshDevicesBattery(jsonMsg);
                 break;
@@ -109,25 +193,18 @@ public class TransportServer {
                 devicesService.updateDevicesUser(jsonMsg);
                 break;
             case "heartBeat":
-                Agents agentsOnline = agentsService.findById(jsonMsg.getInteger("agentId"));
-                if (agentsOnline.getStatus() != AgentStatus.ONLINE) {
-                    agentsOnline.setStatus(AgentStatus.ONLINE);
-                    agentsService.saveAgents(agentsOnline);
-                }
+                agentLivenessTracker.heartBeat(jsonMsg.getInteger("agentId"));
                 break;
             case "agentInfo": {
-                Session agentSession = BytesTool.agentSessionMap.get(jsonMsg.getInteger("agentId"));
-                if (agentSession != null) {
-                    try {
-                        agentSession.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    BytesTool.agentSessionMap.remove(jsonMsg.getInteger("agentId"));
+                // 排队期间会话可能已关闭或被新连接替换，此时不能再把 agent 写成在线
+                if (agentSessionRegistry.getSession(jsonMsg.getInteger("agentId")) != session) {
+                    break;
                 }
-                BytesTool.agentSessionMap.put(jsonMsg.getInteger("agentId"), session);
+                agentRouteTable.publish(jsonMsg.getInteger("agentId"));
                 jsonMsg.remove("msg");
                 agentsService.saveAgents(jsonMsg);
+                agentLivenessTracker.online(jsonMsg.getInteger("agentId"));
+                TransportWorker.replay(jsonMsg.getInteger("agentId"), true);
             }
             break;
             case "subResultCount":
@@ -144,17 +221,23 @@ public class TransportServer {
                 break;
             case "findSteps":
                 JSONObject steps = findSteps(jsonMsg, "runStep");
-                Session agentSession = BytesTool.agentSessionMap.get(jsonMsg.getInteger("agentId"));
+                Session agentSession = agentSessionRegistry.getSession(jsonMsg.getInteger("agentId"));
                 if (agentSession != null) {
                     BytesTool.sendText(agentSession, steps.toJSONString());
                 }
                 break;
+            case "reply":
+                TransportWorker.reply(jsonMsg);
+                break;
+            case "ack":
+                TransportWorker.ack(jsonMsg);
+                break;
             case "errCall":
                 agentsService.errCall(jsonMsg.getInteger("agentId"), jsonMsg.getString("udId"), jsonMsg.getInteger("tem"), jsonMsg.getInteger("type"));
                 break;
             case "generateStep":
                 JSONObject step = generateStep(jsonMsg, "runStep");
-                Session agentSession2 = BytesTool.agentSessionMap.get(jsonMsg.getInteger("agentId"));
+                Session agentSession2 = agentSessionRegistry.getSession(jsonMsg.getInteger("agentId"));
                 if (agentSession2 != null) {
                     BytesTool.sendText(agentSession2, step.toJSONString());
                 }
@@ -218,13 +301,20 @@ public class TransportServer {
     @OnClose
     public void onClose(Session session) {
         log.info("Agent: {} disconnected.", session.getId());
-        for (Map.Entry<Integer, Session> entry : BytesTool.agentSessionMap.entrySet()) {
-            if (entry.getValue().equals(session)) {
-                int agentId = entry.getKey();
+        outboundDispatcher.release(session);
+        Integer agentId = agentSessionRegistry.unregister(session);
+        if (agentId != null) {
+            // 与 agentInfo 走同一 agent 的执行器，排在已入队的上线处理之后，避免上线覆盖下线
+            ingestPipeline.dispatch("agentInfo", agentId, () -> {
+                if (agentSessionRegistry.getSession(agentId) != null) {
+                    // 已快速重连，由新会话负责状态
+                    return;
+                }
+                agentLivenessTracker.remove(agentId);
+                agentRouteTable.withdraw(agentId);
                 agentsService.offLine(agentId);
-            }
+            });
         }
-        BytesTool.agentSessionMap.remove(session);
     }
 
     @OnError
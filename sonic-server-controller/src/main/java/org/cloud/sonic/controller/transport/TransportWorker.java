@@ -18,23 +18,185 @@
 package org.cloud.sonic.controller.transport;
 
 import com.alibaba.fastjson.JSONObject;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.cloud.sonic.controller.tools.BytesTool;
 import org.cloud.sonic.controller.tools.SpringTool;
 import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
+@Slf4j
 public class TransportWorker {
-    private static DiscoveryClient discoveryClient = SpringTool.getBean(DiscoveryClient.class);
+    private static AgentSessionRegistry agentSessionRegistry = SpringTool.getBean(AgentSessionRegistry.class);
+    private static AgentRouteTable agentRouteTable = SpringTool.getBean(AgentRouteTable.class);
     private static RestTemplate restTemplate = SpringTool.getBean(RestTemplate.class);
+    private static AgentReplyRegistry agentReplyRegistry = SpringTool.getBean(AgentReplyRegistry.class);
+    private static AgentOutbox agentOutbox = SpringTool.getBean(AgentOutbox.class);
 
+    /**
+     * 向 agent 下发指令：
+     * - agent 连接在本实例时直接发送
+     * - 否则只发给路由表中持有连接的实例
+     * - 路由未知或目标实例不可用时退化为广播
+     * 需要可靠送达的消息先进入 {@link AgentOutbox}，agent 重连后重发
+     */
     public static void send(int agentId, JSONObject jsonObject) {
-        List<ServiceInstance> serviceInstanceList = discoveryClient.getInstances("sonic-server-controller");
-        for (ServiceInstance i : serviceInstanceList) {
+        if (agentOutbox.isDurable(jsonObject.getString("msg"))) {
+            jsonObject = agentOutbox.append(agentId, jsonObject);
+        }
+        deliver(agentId, jsonObject);
+    }
+
+    /**
+     * agent 重新上报 agentInfo 后重发本实例发件箱中未确认的消息
+     *
+     * @param broadcast 是否通知其他实例也重发各自的发件箱
+     */
+    public static void replay(int agentId, boolean broadcast) {
+        List<JSONObject> pending = agentOutbox.pending(agentId);
+        if (!pending.isEmpty()) {
+            log.info("Agent: {} replay {} unacknowledged messages.", agentId, pending.size());
+        }
+        for (JSONObject jsonObject : pending) {
+            deliver(agentId, jsonObject);
+        }
+        if (!broadcast || !agentOutbox.isEnabled()) {
+            return;
+        }
+        for (ServiceInstance i : agentRouteTable.controllerInstances()) {
+            if (agentRouteTable.isLocal(i.getInstanceId())) {
+                continue;
+            }
+            try {
+                restTemplate.getForEntity(
+                        String.format("http://%s:%d/exchange/replay?id=%d", i.getHost(), i.getPort(), agentId),
+                        JSONObject.class);
+            } catch (RestClientException e) {
+                log.warn("Replay agent: {} via {} failed. {}", agentId, i.getInstanceId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 处理 agent 的 ack：发件箱在本实例时直接确认，否则转发给对应实例
+     */
+    public static void ack(JSONObject jsonObject) {
+        Integer agentId = jsonObject.getInteger("agentId");
+        Long seq = jsonObject.getLong("seq");
+        if (agentId == null || seq == null) {
+            return;
+        }
+        String outbox = jsonObject.getString("outbox");
+        if (agentOutbox.isLocal(outbox)) {
+            agentOutbox.ack(agentId, seq);
+            return;
+        }
+        ServiceInstance target = agentRouteTable.findInstance(outbox);
+        if (target == null) {
+            return;
+        }
+        try {
+            restTemplate.getForEntity(
+                    String.format("http://%s:%d/exchange/ack?id=%d&seq=%d", target.getHost(), target.getPort(), agentId, seq),
+                    JSONObject.class);
+        } catch (RestClientException e) {
+            log.warn("Forward ack of agent: {} to {} failed. {}", agentId, outbox, e.getMessage());
+        }
+    }
+
+    private static void deliver(int agentId, JSONObject jsonObject) {
+        Session session = agentSessionRegistry.getSession(agentId);
+        if (session != null) {
+            BytesTool.sendText(session, jsonObject);
+            return;
+        }
+        String message = jsonObject.toJSONString();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> entity = new HttpEntity<>(message, headers);
+
+        String owner = agentRouteTable.ownerOf(agentId);
+        if (owner != null && !agentRouteTable.isLocal(owner)) {
+            ServiceInstance target = agentRouteTable.findInstance(owner);
+            if (target != null) {
+                try {
+                    post(target, agentId, entity);
+                    return;
+                } catch (RestClientException e) {
+                    log.warn("Send to agent: {} via {} failed, fallback to broadcast. {}", agentId, owner, e.getMessage());
+                    agentRouteTable.invalidate();
+                }
+            }
+            agentRouteTable.invalidateOwner(agentId);
+        }
+        for (ServiceInstance i : agentRouteTable.controllerInstances()) {
+            if (agentRouteTable.isLocal(i.getInstanceId()) || Objects.equals(i.getInstanceId(), owner)) {
+                continue;
+            }
+            try {
+                post(i, agentId, entity);
+            } catch (RestClientException e) {
+                log.warn("Send to agent: {} via {} failed. {}", agentId, i.getInstanceId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 下发指令并等待 agent 应答
+     * <p>
+     * 指令中带上 requestId 与当前实例 id（replyInstance），agent 原样带回；
+     * 应答落在其他实例时由该实例转发回来，见 {@link #reply(JSONObject)}。
+     *
+     * @param timeoutMillis 超时时间，小于等于 0 时使用默认值
+     * @return agent 的应答，超时以 TimeoutException 结束
+     */
+    public static CompletableFuture<JSONObject> request(int agentId, JSONObject jsonObject, long timeoutMillis) {
+        String requestId = agentReplyRegistry.newRequestId();
+        jsonObject.put("requestId", requestId);
+        jsonObject.put("replyInstance", agentRouteTable.localInstanceId());
+        CompletableFuture<JSONObject> future = agentReplyRegistry.register(requestId, timeoutMillis);
+        if (!future.isDone()) {
+            send(agentId, jsonObject);
+        }
+        return future;
+    }
+
+    /**
+     * 处理 agent 的应答：发起请求的是本实例时直接完成，否则转发给 replyInstance
+     */
+    public static void reply(JSONObject jsonObject) {
+        String replyInstance = jsonObject.getString("replyInstance");
+        if (replyInstance == null || agentRouteTable.isLocal(replyInstance)) {
+            agentReplyRegistry.complete(jsonObject.getString("requestId"), jsonObject);
+            return;
+        }
+        ServiceInstance target = agentRouteTable.findInstance(replyInstance);
+        if (target == null) {
+            log.warn("Reply: {} target {} not found, dropped.", jsonObject.getString("requestId"), replyInstance);
+            return;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        try {
             restTemplate.postForEntity(
-                    String.format("http://%s:%d/exchange/send?id=%d", i.getHost(), i.getPort(), agentId),
-                    jsonObject, JSONObject.class);
+                    String.format("http://%s:%d/exchange/reply", target.getHost(), target.getPort()),
+                    new HttpEntity<>(jsonObject.toJSONString(), headers), JSONObject.class);
+        } catch (RestClientException e) {
+            log.warn("Forward reply: {} to {} failed. {}", jsonObject.getString("requestId"), replyInstance, e.getMessage());
         }
     }
+
+    private static void post(ServiceInstance i, int agentId, HttpEntity<String> entity) {
+        restTemplate.postForEntity(
+                String.format("http://%s:%d/exchange/send?id=%d", i.getHost(), i.getPort(), agentId),
+                entity, JSONObject.class);
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.service.impl;
+
+import org.cloud.sonic.controller.mapper.ResultDetailMapper;
+import org.cloud.sonic.controller.models.domain.ResultDetail;
+import org.cloud.sonic.controller.services.impl.ResultDetailWriteBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResultDetailWriteBufferTest {
+
+    @InjectMocks
+    private ResultDetailWriteBuffer resultDetailWriteBuffer;
+
+    @Mock
+    private ResultDetailMapper resultDetailMapper;
+
+    private final List<Integer> written = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(resultDetailWriteBuffer, "batchSize", 3);
+        ReflectionTestUtils.setField(resultDetailWriteBuffer, "flushMillis", 1000L);
+        ReflectionTestUtils.setField(resultDetailWriteBuffer, "capacity", 100);
+        Mockito.when(resultDetailMapper.insertBatch(Mockito.anyList())).thenAnswer(invocation -> {
+            List<ResultDetail> list = invocation.getArgument(0);
+            synchronized (written) {
+                list.forEach(r -> written.add(r.getCaseId()));
+            }
+            return list.size();
+        });
+        resultDetailWriteBuffer.start();
+    }
+
+    @After
+    public void tearDown() {
+        resultDetailWriteBuffer.shutdown();
+    }
+
+    @Test
+    public void testFlushKeepsOrder() {
+        for (int i = 1; i <= 7; i++) {
+            resultDetailWriteBuffer.add(new ResultDetail().setCaseId(i));
+        }
+        resultDetailWriteBuffer.flush();
+
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5, 6, 7), written);
+        Mockito.verify(resultDetailMapper, Mockito.times(3)).insertBatch(Mockito.anyList());
+    }
+
+    @Test
+    public void testShutdownDrains() {
+        resultDetailWriteBuffer.add(new ResultDetail().setCaseId(1));
+        resultDetailWriteBuffer.shutdown();
+
+        Assert.assertEquals(List.of(1), written);
+    }
+}
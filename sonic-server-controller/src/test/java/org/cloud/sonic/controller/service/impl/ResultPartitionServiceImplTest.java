@@ -0,0 +1,123 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.service.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import org.cloud.sonic.controller.mapper.ResultPartitionMapper;
+import org.cloud.sonic.controller.services.impl.ResultPartitionServiceImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResultPartitionServiceImplTest {
+
+    @InjectMocks
+    private ResultPartitionServiceImpl resultPartitionService;
+
+    @Mock
+    private ResultPartitionMapper resultPartitionMapper;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(resultPartitionService, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(resultPartitionService, "enable", true);
+        ReflectionTestUtils.setField(resultPartitionService, "intervalDays", 7);
+        Mockito.lenient().when(resultPartitionMapper.getLock(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt())).thenReturn(1);
+    }
+
+    private JSONObject partition(String name, String bound) {
+        JSONObject partition = new JSONObject();
+        partition.put("name", name);
+        partition.put("bound", bound);
+        return partition;
+    }
+
+    @Test
+    public void testSplitAheadOfMaxId() {
+        Mockito.when(resultPartitionMapper.findPartitions("results"))
+                .thenReturn(List.of(partition("pinit", "100"), partition("p20240101", "5000"), partition("pmax", "MAXVALUE")));
+        Mockito.when(resultPartitionMapper.findMaxId("results")).thenReturn(4500L);
+        Mockito.when(resultPartitionMapper.countSince(ArgumentMatchers.eq("results"), ArgumentMatchers.eq("create_time"), ArgumentMatchers.any()))
+                .thenReturn(2000L);
+        Mockito.when(resultPartitionMapper.findPartitions("result_detail"))
+                .thenReturn(List.of(partition("pinit", "100"), partition("p20240101", "900000"), partition("pmax", "MAXVALUE")));
+        Mockito.when(resultPartitionMapper.findMaxId("result_detail")).thenReturn(1000L);
+        Mockito.when(resultPartitionMapper.countSince(ArgumentMatchers.eq("result_detail"), ArgumentMatchers.eq("time"), ArgumentMatchers.any()))
+                .thenReturn(50000L);
+
+        resultPartitionService.split();
+
+        // 新分区从当前分区上界开始预留，pmax 中没有数据
+        String name = LocalDate.now().format(DateTimeFormatter.ofPattern("'p'yyyyMMdd"));
+        Mockito.verify(resultPartitionMapper).split("results", name, 7000L);
+        Mockito.verify(resultPartitionMapper, Mockito.never())
+                .split(ArgumentMatchers.eq("result_detail"), ArgumentMatchers.anyString(), ArgumentMatchers.anyLong());
+        Mockito.verify(resultPartitionMapper).releaseLock(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void testSplitSkippedWithoutLock() {
+        Mockito.when(resultPartitionMapper.getLock(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt())).thenReturn(0);
+
+        resultPartitionService.split();
+
+        Mockito.verify(resultPartitionMapper, Mockito.never()).findPartitions(ArgumentMatchers.anyString());
+        Mockito.verify(resultPartitionMapper, Mockito.never()).releaseLock(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void testDropOnlyFullAndExpired() {
+        Date cutoff = new Date();
+        Date old = new Date(cutoff.getTime() - 1000);
+        Mockito.when(resultPartitionMapper.findPartitions("results"))
+                .thenReturn(List.of(partition("pinit", "100"), partition("p20240101", "200"),
+                        partition("p20240108", "300"), partition("pmax", "MAXVALUE")));
+        Mockito.when(resultPartitionMapper.findMaxId("results")).thenReturn(250L);
+        Mockito.when(resultPartitionMapper.findMaxTime("results", "create_time", "pinit")).thenReturn(null);
+        Mockito.when(resultPartitionMapper.findMaxTime("results", "create_time", "p20240101")).thenReturn(old);
+        Mockito.when(resultPartitionMapper.findPartitions("result_detail"))
+                .thenReturn(List.of(partition("pinit", "100"), partition("p20240101", "200"), partition("pmax", "MAXVALUE")));
+        Mockito.when(resultPartitionMapper.findMaxId("result_detail")).thenReturn(250L);
+        Mockito.when(resultPartitionMapper.findMaxTime("result_detail", "time", "pinit")).thenReturn(cutoff);
+
+        Assert.assertEquals(2, resultPartitionService.dropBefore(cutoff));
+
+        // p20240108 仍在写入，result_detail 的 pinit 还有未过期的行
+        Mockito.verify(resultPartitionMapper).drop("results", "pinit,p20240101");
+        Mockito.verify(resultPartitionMapper, Mockito.never())
+                .drop(ArgumentMatchers.eq("result_detail"), ArgumentMatchers.anyString());
+    }
+}
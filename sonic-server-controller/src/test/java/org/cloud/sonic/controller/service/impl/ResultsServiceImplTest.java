@@ -0,0 +1,236 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.service.impl;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.cloud.sonic.controller.mapper.ResultsMapper;
+import org.cloud.sonic.controller.models.domain.Results;
+import org.cloud.sonic.controller.models.domain.TestCases;
+import org.cloud.sonic.controller.models.dto.TestSuitesDTO;
+import org.cloud.sonic.controller.models.interfaces.ResultDetailStatus;
+import org.cloud.sonic.controller.models.interfaces.ResultStatus;
+import org.cloud.sonic.controller.services.AlertRobotsService;
+import org.cloud.sonic.controller.services.ResultDetailService;
+import org.cloud.sonic.controller.services.ResultPartitionService;
+import org.cloud.sonic.controller.services.ResultRollupService;
+import org.cloud.sonic.controller.services.TestCasesService;
+import org.cloud.sonic.controller.services.TestSuitesService;
+import org.cloud.sonic.controller.services.impl.ResultsServiceImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResultsServiceImplTest {
+
+    @InjectMocks
+    private ResultsServiceImpl resultsService;
+
+    @Mock
+    private ResultsMapper resultsMapper;
+
+    @Mock
+    private AlertRobotsService alertRobotsService;
+
+    @Mock
+    private ResultDetailService resultDetailService;
+
+    @Mock
+    private TestSuitesService testSuitesService;
+
+    @Mock
+    private TestCasesService testCasesService;
+
+    @Mock
+    private ResultRollupService resultRollupService;
+
+    @Mock
+    private ResultPartitionService resultPartitionService;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(resultsService, "baseMapper", resultsMapper);
+        ReflectionTestUtils.setField(resultsService, "caseStatusCacheSize", 10);
+    }
+
+    @Test
+    public void testCountNewStatus() {
+        resultsService.countStatus(1, List.of(), ResultDetailStatus.FAIL);
+        Mockito.verify(resultsMapper).addStatusCount(1, 0, 0, 1);
+    }
+
+    @Test
+    public void testCountReplacedStatus() {
+        resultsService.countStatus(1, List.of(ResultDetailStatus.FAIL), ResultDetailStatus.PASS);
+        Mockito.verify(resultsMapper).addStatusCount(1, 1, 0, -1);
+    }
+
+    @Test
+    public void testCountUnchangedStatus() {
+        resultsService.countStatus(1, List.of(ResultDetailStatus.WARN), ResultDetailStatus.WARN);
+        Mockito.verifyNoInteractions(resultsMapper);
+    }
+
+    private Results running(int receive, int send) {
+        return new Results().setId(1).setSuiteId(2).setSuiteName("suite").setProjectId(3)
+                .setStatus(ResultStatus.RUNNING).setFinished(0)
+                .setReceiveMsgCount(receive).setSendMsgCount(send)
+                .setPassCount(receive).setWarnCount(0).setFailCount(0);
+    }
+
+    @Test
+    public void testSuiteResultNotFinished() {
+        Mockito.when(resultsMapper.addReceiveCount(1)).thenReturn(1);
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(running(1, 2));
+
+        resultsService.suiteResult(1);
+
+        Mockito.verify(resultsMapper, Mockito.never()).claimFinish(Mockito.anyInt(), Mockito.anyInt(), Mockito.any());
+        Mockito.verifyNoInteractions(alertRobotsService);
+    }
+
+    @Test
+    public void testSuiteResultFinishOnce() {
+        Mockito.when(resultsMapper.addReceiveCount(1)).thenReturn(1);
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(running(2, 2));
+        Mockito.when(resultsMapper.claimFinish(Mockito.eq(1), Mockito.eq(ResultStatus.PASS), Mockito.any()))
+                .thenReturn(1).thenReturn(0);
+
+        resultsService.suiteResult(1);
+        resultsService.suiteResult(1);
+
+        Mockito.verify(alertRobotsService, Mockito.times(1))
+                .sendResultFinishReport(2, "suite", 2, 0, 0, 3, 1);
+        Mockito.verify(resultRollupService, Mockito.times(1)).record(Mockito.any());
+    }
+
+    private JSONObject row(int caseId, int deviceId, int status) {
+        JSONObject row = new JSONObject();
+        row.put("case_id", caseId);
+        row.put("device_id", deviceId);
+        row.put("status", status);
+        return row;
+    }
+
+    private JSONObject time(int caseId, long start) {
+        JSONObject row = new JSONObject();
+        row.put("case_id", caseId);
+        row.put("startTime", new Date(start));
+        row.put("endTime", new Date(start + 1000));
+        return row;
+    }
+
+    @Test
+    public void testFindCaseStatusCachedWhenFinished() {
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(running(2, 2).setFinished(1));
+        Mockito.when(testSuitesService.findById(2)).thenReturn(new TestSuitesDTO());
+        Mockito.when(resultDetailService.findTimeByResultIdGroupByCaseId(1))
+                .thenReturn(List.of(time(10, 2000), time(11, 1000)));
+        Mockito.when(resultDetailService.findStatusByResultIdGroupByCaseId(1))
+                .thenReturn(List.of(row(10, 1, 1), row(11, 1, 1), row(10, 2, 3)));
+        Mockito.when(testCasesService.findByIdIn(Mockito.anyList()))
+                .thenReturn(List.of(new TestCases().setId(10), new TestCases().setId(11)));
+
+        JSONArray result = resultsService.findCaseStatus(1);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(11, ((TestCases) result.getJSONObject(0).get("case")).getId().intValue());
+        Assert.assertEquals(3, result.getJSONObject(1).getIntValue("status"));
+        Assert.assertEquals(2, result.getJSONObject(1).getJSONArray("device").size());
+
+        Assert.assertSame(result, resultsService.findCaseStatus(1));
+        Mockito.verify(testSuitesService, Mockito.times(1)).findById(2);
+
+        resultsService.delete(1);
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(null);
+        Assert.assertNull(resultsService.findCaseStatus(1));
+    }
+
+    @Test
+    public void testFindCaseStatusRecomputedOnLateStatus() {
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(running(2, 2).setFinished(1).setFailCount(0));
+        Mockito.when(testSuitesService.findById(2)).thenReturn(new TestSuitesDTO());
+        Mockito.when(resultDetailService.findTimeByResultIdGroupByCaseId(1)).thenReturn(List.of(time(10, 1000)));
+        Mockito.when(resultDetailService.findStatusByResultIdGroupByCaseId(1)).thenReturn(List.of(row(10, 1, 1)));
+        Mockito.when(testCasesService.findByIdIn(Mockito.anyList())).thenReturn(List.of(new TestCases().setId(10)));
+        JSONArray first = resultsService.findCaseStatus(1);
+
+        // 其他实例补报了失败状态，本实例缓存未被清除
+        Mockito.when(resultsMapper.selectById(1)).thenReturn(running(2, 2).setFinished(1).setFailCount(1));
+        Mockito.when(resultDetailService.findStatusByResultIdGroupByCaseId(1))
+                .thenReturn(List.of(row(10, 1, 1), row(10, 2, 3)));
+
+        JSONArray second = resultsService.findCaseStatus(1);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(3, second.getJSONObject(0).getIntValue("status"));
+    }
+
+    private JSONObject day(String date, int pass, int warn, int fail) {
+        JSONObject row = new JSONObject();
+        row.put("date", date);
+        row.put("pass_count", pass);
+        row.put("warn_count", warn);
+        row.put("fail_count", fail);
+        return row;
+    }
+
+    @Test
+    public void testChartFromRollup() {
+        Mockito.when(resultRollupService.findDayStat("2024-01-01", "2024-01-03", 1))
+                .thenReturn(List.of(day("2024-01-01", 1, 0, 3), day("2024-01-03", 2, 0, 0)));
+
+        JSONObject chart = resultsService.chart("2024-01-01 00:00:00", "2024-01-03 23:59:59", 1);
+
+        JSONArray pass = chart.getJSONArray("pass");
+        Assert.assertEquals(3, pass.size());
+        Assert.assertEquals(25f, pass.getJSONObject(0).getFloatValue("rate"), 0.001);
+        Assert.assertEquals(0f, pass.getJSONObject(1).getFloatValue("rate"), 0.001);
+        Assert.assertEquals(100f, pass.getJSONObject(2).getFloatValue("rate"), 0.001);
+        JSONArray status = chart.getJSONArray("status");
+        Assert.assertEquals(2, status.size());
+        Assert.assertEquals(3, status.getJSONObject(0).getIntValue("total"));
+        Assert.assertEquals(3, status.getJSONObject(1).getIntValue("status"));
+    }
+
+    @Test
+    public void testCleanInBatches() {
+        ReflectionTestUtils.setField(resultsService, "cleanBatchSize", 2);
+        ReflectionTestUtils.setField(resultsService, "cleanDetailBatchSize", 100);
+        ReflectionTestUtils.setField(resultsService, "cleanPauseMillis", 0L);
+        Date cutoff = new Date();
+        Mockito.when(resultsMapper.findIdsBefore(cutoff, 2)).thenReturn(List.of(1, 2), List.of(3));
+
+        ReflectionTestUtils.invokeMethod(resultsService, "cleanBefore", cutoff);
+
+        Mockito.verify(resultPartitionService).dropBefore(cutoff);
+        Mockito.verify(resultDetailService).deleteByResultIds(List.of(1, 2), 100);
+        Mockito.verify(resultDetailService).deleteByResultIds(List.of(3), 100);
+        Mockito.verify(resultsMapper).deleteBatchIds(List.of(1, 2));
+        Mockito.verify(resultsMapper).deleteBatchIds(List.of(3));
+        Mockito.verify(resultsMapper, Mockito.times(2)).findIdsBefore(cutoff, 2);
+    }
+}
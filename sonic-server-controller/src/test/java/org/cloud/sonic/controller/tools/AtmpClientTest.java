@@ -0,0 +1,322 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.tools;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class AtmpClientTest {
+
+    private AtmpClient atmpClient;
+    private StubHttpClient httpClient;
+
+    @Before
+    public void setUp() {
+        atmpClient = new AtmpClient();
+        httpClient = new StubHttpClient();
+        ReflectionTestUtils.setField(atmpClient, "client", httpClient);
+        ReflectionTestUtils.setField(atmpClient, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(atmpClient, "atmpBaseUrl", "http://atmp");
+        ReflectionTestUtils.setField(atmpClient, "atmpToken", "");
+        ReflectionTestUtils.setField(atmpClient, "timeoutMillis", 1000L);
+        ReflectionTestUtils.setField(atmpClient, "queueCapacity", 10);
+        ReflectionTestUtils.setField(atmpClient, "maxInFlight", 1);
+        ReflectionTestUtils.setField(atmpClient, "maxRetries", 3);
+        ReflectionTestUtils.setField(atmpClient, "retryBaseMillis", 200L);
+        ReflectionTestUtils.setField(atmpClient, "retryMaxMillis", 200L);
+        ReflectionTestUtils.setField(atmpClient, "breakerFailures", 2);
+        ReflectionTestUtils.setField(atmpClient, "breakerOpenMillis", 100L);
+        atmpClient.init();
+    }
+
+    @After
+    public void tearDown() {
+        atmpClient.shutdown();
+    }
+
+    @Test
+    public void testSyncLatestWins() throws Exception {
+        atmpClient.syncDevice("a", Map.of("v", 1));
+        drain();
+        atmpClient.syncDevice("b", Map.of("v", 1));
+        atmpClient.syncDevice("a", Map.of("v", 2));
+        atmpClient.syncDevice("a", Map.of("v", 3));
+        drain();
+        // 同一设备在队列中只保留最新的一次
+        Assert.assertEquals(1, httpClient.calls.size());
+        Assert.assertEquals(2, atmpClient.queueSize());
+
+        httpClient.complete(0, 200);
+        drain();
+        httpClient.complete(1, 200);
+        drain();
+        Assert.assertEquals(3, httpClient.calls.size());
+        Assert.assertEquals("{\"v\":3}", httpClient.body(2));
+        Assert.assertEquals(0, atmpClient.queueSize());
+        httpClient.complete(2, 200);
+        drain();
+        // 全部成功后不再跟踪这些设备
+        Assert.assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(atmpClient, "latest")).isEmpty());
+    }
+
+    @Test
+    public void testRetrySkippedWhenSuperseded() throws Exception {
+        atmpClient.syncDevice("a", Map.of("v", 1));
+        drain();
+        httpClient.complete(0, 500);
+        atmpClient.syncDevice("a", Map.of("v", 2));
+        drain();
+        Assert.assertEquals(2, httpClient.calls.size());
+        httpClient.complete(1, 200);
+
+        // 重试到期时已有更新的请求，旧请求不再发送
+        Thread.sleep(300);
+        drain();
+        Assert.assertEquals(2, httpClient.calls.size());
+        Assert.assertEquals("{\"v\":2}", httpClient.body(1));
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws Exception {
+        atmpClient.syncDevice("a", Map.of("v", 1));
+        drain();
+        httpClient.complete(0, 500);
+
+        Thread.sleep(300);
+        drain();
+        Assert.assertEquals(2, httpClient.calls.size());
+        Assert.assertEquals("{\"v\":1}", httpClient.body(1));
+    }
+
+    @Test
+    public void testBreakerTransitions() throws Exception {
+        httpClient.autoStatus = 500;
+        Assert.assertFalse(atmpClient.heartbeat("p", List.of("a")).get());
+        Assert.assertFalse(atmpClient.isOpen());
+        Assert.assertFalse(atmpClient.heartbeat("p", List.of("a")).get());
+        // CLOSED -> OPEN，熔断期间不发请求
+        Assert.assertTrue(atmpClient.isOpen());
+        Assert.assertFalse(atmpClient.heartbeat("p", List.of("a")).get());
+        Assert.assertEquals(2, httpClient.calls.size());
+
+        // OPEN -> HALF_OPEN，只放行一个试探请求，失败后重新熔断
+        Thread.sleep(150);
+        httpClient.autoStatus = null;
+        CompletableFuture<Boolean> probe = atmpClient.heartbeat("p", List.of("a"));
+        Assert.assertFalse(atmpClient.heartbeat("p", List.of("a")).get());
+        Assert.assertEquals(3, httpClient.calls.size());
+        httpClient.complete(2, 500);
+        Assert.assertFalse(probe.get());
+        Assert.assertTrue(atmpClient.isOpen());
+
+        // HALF_OPEN -> CLOSED
+        Thread.sleep(150);
+        httpClient.autoStatus = 200;
+        Assert.assertTrue(atmpClient.heartbeat("p", List.of("a")).get());
+        Assert.assertFalse(atmpClient.isOpen());
+        Assert.assertTrue(atmpClient.heartbeat("p", List.of("a")).get());
+        Assert.assertEquals(5, httpClient.calls.size());
+    }
+
+    /**
+     * 等待 atmp-client 线程处理完已提交的任务
+     */
+    private void drain() throws Exception {
+        ScheduledExecutorService executor = (ScheduledExecutorService) ReflectionTestUtils.getField(atmpClient, "executor");
+        executor.submit(() -> {
+        }).get(1, TimeUnit.SECONDS);
+    }
+
+    private static final class StubHttpClient extends HttpClient {
+        private final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+        private volatile Integer autoStatus;
+
+        void complete(int index, int status) {
+            Call call = calls.get(index);
+            call.future.complete(new StubResponse(call.request, status));
+        }
+
+        String body(int index) {
+            HttpRequest request = calls.get(index).request;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            request.bodyPublisher().orElseThrow().subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    byte[] bytes = new byte[item.remaining()];
+                    item.get(bytes);
+                    out.writeBytes(bytes);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            return out.toString(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            Call call = new Call(request);
+            calls.add(call);
+            Integer status = autoStatus;
+            if (status != null) {
+                call.future.complete(new StubResponse(request, status));
+            }
+            return (CompletableFuture<HttpResponse<T>>) (CompletableFuture<?>) call.future;
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                                HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+            return sendAsync(request, handler);
+        }
+
+        @Override
+        public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+            throw new IOException("not supported");
+        }
+
+        @Override
+        public Optional<CookieHandler> cookieHandler() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Duration> connectTimeout() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Redirect followRedirects() {
+            return Redirect.NEVER;
+        }
+
+        @Override
+        public Optional<ProxySelector> proxy() {
+            return Optional.empty();
+        }
+
+        @Override
+        public SSLContext sslContext() {
+            return null;
+        }
+
+        @Override
+        public SSLParameters sslParameters() {
+            return null;
+        }
+
+        @Override
+        public Optional<Authenticator> authenticator() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Version version() {
+            return Version.HTTP_1_1;
+        }
+
+        @Override
+        public Optional<Executor> executor() {
+            return Optional.empty();
+        }
+    }
+
+    private static final class Call {
+        private final HttpRequest request;
+        private final CompletableFuture<HttpResponse<String>> future = new CompletableFuture<>();
+
+        private Call(HttpRequest request) {
+            this.request = request;
+        }
+    }
+
+    private record StubResponse(HttpRequest request, int statusCode) implements HttpResponse<String> {
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return HttpHeaders.of(Map.of(), (k, v) -> true);
+        }
+
+        @Override
+        public String body() {
+            return "";
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
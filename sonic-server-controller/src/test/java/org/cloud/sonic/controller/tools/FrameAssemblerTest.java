@@ -0,0 +1,62 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameAssemblerTest {
+
+    @Test
+    public void testSplitFrames() {
+        FrameAssembler frames = new FrameAssembler(32);
+        Assert.assertNull(frames.append("{\"msg\":", false));
+        Assert.assertNull(frames.append("\"sas\",", false));
+        Assert.assertEquals("{\"msg\":\"sas\",\"port\":1}", frames.append("\"port\":1}", true));
+        Assert.assertEquals("{}", frames.append("{}", true));
+        Assert.assertEquals(0, frames.getDropped());
+    }
+
+    @Test
+    public void testOversizeDiscardedThenRecovers() {
+        FrameAssembler frames = new FrameAssembler(8);
+        Assert.assertNull(frames.append("12345", false));
+        Assert.assertNull(frames.append("67890", false));
+        // 超长后剩余分片都丢弃，直到最后一片
+        Assert.assertNull(frames.append("abc", false));
+        Assert.assertNull(frames.append("d", true));
+        Assert.assertEquals(1, frames.getDropped());
+
+        Assert.assertEquals("short", frames.append("short", true));
+        Assert.assertNull(frames.append("123456789", true));
+        Assert.assertEquals("ok", frames.append("ok", true));
+        Assert.assertEquals(2, frames.getDropped());
+    }
+
+    @Test
+    public void testReset() {
+        FrameAssembler frames = new FrameAssembler(8);
+        Assert.assertNull(frames.append("half", false));
+        frames.reset();
+        Assert.assertEquals("new", frames.append("new", true));
+
+        Assert.assertNull(frames.append("123456789", false));
+        frames.reset();
+        Assert.assertEquals("next", frames.append("next", true));
+    }
+}
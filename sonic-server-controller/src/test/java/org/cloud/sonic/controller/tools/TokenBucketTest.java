@@ -0,0 +1,43 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenWait() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, bucket.tryAcquire());
+        }
+        long wait = bucket.tryAcquire();
+        Assert.assertTrue(wait > 0 && wait <= 1_000_000_000L);
+    }
+
+    @Test
+    public void testRefund() {
+        TokenBucket bucket = new TokenBucket(0.001, 1);
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire() > 0);
+        bucket.refund();
+        Assert.assertEquals(0, bucket.tryAcquire());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.websocket.Session;
+import org.cloud.sonic.controller.mapper.AgentsMapper;
+import org.cloud.sonic.controller.services.AgentsService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AgentLivenessTrackerTest {
+
+    @InjectMocks
+    private AgentLivenessTracker tracker;
+
+    @Mock
+    private AgentsMapper agentsMapper;
+
+    @Mock
+    private AgentsService agentsService;
+
+    @Mock
+    private AgentSessionRegistry agentSessionRegistry;
+
+    @Test
+    public void testHeartBeatAfterCloseIgnored() {
+        tracker.heartBeat(1);
+
+        Assert.assertNull(tracker.get(1));
+        Mockito.verifyNoInteractions(agentsMapper);
+    }
+
+    @Test
+    public void testOnlineAfterCloseIgnored() {
+        tracker.online(1);
+
+        Assert.assertNull(tracker.get(1));
+    }
+
+    @Test
+    public void testSweepWithoutSessionKeepsDb() {
+        Mockito.when(agentSessionRegistry.getSession(1)).thenReturn(Mockito.mock(Session.class));
+        tracker.online(1);
+        Assert.assertNotNull(tracker.get(1));
+        Mockito.when(agentSessionRegistry.getSession(1)).thenReturn(null);
+        ReflectionTestUtils.setField(tracker, "timeoutMillis", -1L);
+
+        tracker.sweep();
+
+        Assert.assertNull(tracker.get(1));
+        Mockito.verifyNoInteractions(agentsService);
+    }
+}
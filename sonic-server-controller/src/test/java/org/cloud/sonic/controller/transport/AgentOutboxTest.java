@@ -0,0 +1,126 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AgentOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AgentOutbox newOutbox(int capacity, String spillDir) {
+        AgentOutbox outbox = new AgentOutbox();
+        AgentRouteTable routeTable = Mockito.mock(AgentRouteTable.class);
+        Mockito.when(routeTable.localInstanceId()).thenReturn("c1");
+        Set<String> types = new HashSet<>();
+        types.add("suite");
+        ReflectionTestUtils.setField(outbox, "agentRouteTable", routeTable);
+        ReflectionTestUtils.setField(outbox, "enable", true);
+        ReflectionTestUtils.setField(outbox, "types", types);
+        ReflectionTestUtils.setField(outbox, "capacity", capacity);
+        ReflectionTestUtils.setField(outbox, "ttlMillis", 60000L);
+        ReflectionTestUtils.setField(outbox, "spillDir", spillDir);
+        return outbox;
+    }
+
+    private JSONObject suite(int rid) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("msg", "suite");
+        jsonObject.put("rid", rid);
+        return jsonObject;
+    }
+
+    @Test
+    public void testAckAndReplay() {
+        AgentOutbox outbox = newOutbox(10, "");
+        Assert.assertTrue(outbox.isDurable("suite"));
+        Assert.assertFalse(outbox.isDurable("reboot"));
+
+        JSONObject origin = suite(1);
+        JSONObject first = outbox.append(1, origin);
+        JSONObject second = outbox.append(1, suite(2));
+        Assert.assertNull(origin.get("seq"));
+        Assert.assertEquals("c1", first.getString("outbox"));
+        Assert.assertTrue(second.getLongValue("seq") > first.getLongValue("seq"));
+
+        outbox.ack(1, first.getLongValue("seq"));
+        List<JSONObject> pending = outbox.pending(1);
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals(2, pending.get(0).getIntValue("rid"));
+        Assert.assertTrue(outbox.pending(2).isEmpty());
+    }
+
+    @Test
+    public void testSpillWhenFull() throws Exception {
+        AgentOutbox outbox = newOutbox(2, folder.newFolder().getAbsolutePath());
+        JSONObject first = outbox.append(1, suite(1));
+        outbox.append(1, suite(2));
+        outbox.append(1, suite(3));
+        Assert.assertEquals(2, outbox.size(1));
+
+        List<JSONObject> pending = outbox.pending(1);
+        Assert.assertEquals(3, pending.size());
+        Assert.assertEquals(1, pending.get(0).getIntValue("rid"));
+
+        outbox.ack(1, first.getLongValue("seq"));
+        pending = outbox.pending(1);
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals(2, pending.get(0).getIntValue("rid"));
+    }
+
+    @Test
+    public void testDropOldestWithoutSpill() {
+        AgentOutbox outbox = newOutbox(2, "");
+        outbox.append(1, suite(1));
+        outbox.append(1, suite(2));
+        outbox.append(1, suite(3));
+        List<JSONObject> pending = outbox.pending(1);
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals(2, pending.get(0).getIntValue("rid"));
+    }
+
+    @Test
+    public void testPurgeRemovesAckedBox() throws Exception {
+        AgentOutbox outbox = newOutbox(10, "");
+        JSONObject first = outbox.append(1, suite(1));
+        outbox.append(2, suite(2));
+        outbox.ack(1, first.getLongValue("seq"));
+        Thread.sleep(5);
+
+        outbox.purge();
+        Map<?, ?> boxes = (Map<?, ?>) ReflectionTestUtils.getField(outbox, "boxes");
+        Assert.assertFalse(boxes.containsKey(1));
+        Assert.assertTrue(boxes.containsKey(2));
+
+        // 重建后编号仍递增
+        JSONObject next = outbox.append(1, suite(3));
+        Assert.assertTrue(next.getLongValue("seq") > first.getLongValue("seq"));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+public class AgentReplyRegistryTest {
+
+    private AgentReplyRegistry newRegistry() {
+        AgentReplyRegistry registry = new AgentReplyRegistry();
+        ReflectionTestUtils.setField(registry, "defaultTimeoutMillis", 10000L);
+        ReflectionTestUtils.setField(registry, "maxPending", 2);
+        return registry;
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        AgentReplyRegistry registry = newRegistry();
+        String requestId = registry.newRequestId();
+        CompletableFuture<JSONObject> future = registry.register(requestId, 0);
+        JSONObject reply = new JSONObject();
+        reply.put("requestId", requestId);
+
+        Assert.assertTrue(registry.complete(requestId, reply));
+        Assert.assertSame(reply, future.get());
+        Assert.assertEquals(0, registry.size());
+        Assert.assertFalse(registry.complete(requestId, reply));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        AgentReplyRegistry registry = newRegistry();
+        CompletableFuture<JSONObject> future = registry.register("r1", 50);
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertEquals(0, registry.size());
+        Assert.assertFalse(registry.complete("r1", new JSONObject()));
+    }
+
+    @Test
+    public void testMaxPending() {
+        AgentReplyRegistry registry = newRegistry();
+        registry.register("r1", 0);
+        registry.register("r2", 0);
+        Assert.assertTrue(registry.register("r3", 0).isCompletedExceptionally());
+    }
+}
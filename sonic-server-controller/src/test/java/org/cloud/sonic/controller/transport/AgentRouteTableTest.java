@@ -0,0 +1,74 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.cloud.sonic.controller.mapper.AgentsMapper;
+import org.cloud.sonic.controller.models.domain.Agents;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AgentRouteTableTest {
+
+    @InjectMocks
+    private AgentRouteTable agentRouteTable;
+
+    @Mock
+    private AgentsMapper agentsMapper;
+
+    @BeforeClass
+    public static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Agents.class);
+    }
+
+    @Test
+    public void testOwnerCachedUntilInvalidated() {
+        ReflectionTestUtils.setField(agentRouteTable, "ownerCacheMillis", 60000L);
+        Mockito.when(agentsMapper.selectOne(Mockito.any()))
+                .thenReturn(new Agents().setId(1).setControllerInstance("a"))
+                .thenReturn(new Agents().setId(1).setControllerInstance("b"));
+
+        Assert.assertEquals("a", agentRouteTable.ownerOf(1));
+        Assert.assertEquals("a", agentRouteTable.ownerOf(1));
+        Mockito.verify(agentsMapper, Mockito.times(1)).selectOne(Mockito.any());
+
+        agentRouteTable.invalidateOwner(1);
+        Assert.assertEquals("b", agentRouteTable.ownerOf(1));
+    }
+
+    @Test
+    public void testOwnerExpired() {
+        ReflectionTestUtils.setField(agentRouteTable, "ownerCacheMillis", -1L);
+        Mockito.when(agentsMapper.selectOne(Mockito.any()))
+                .thenReturn(new Agents().setId(1).setControllerInstance(""));
+
+        Assert.assertNull(agentRouteTable.ownerOf(1));
+        Assert.assertNull(agentRouteTable.ownerOf(1));
+        Mockito.verify(agentsMapper, Mockito.times(2)).selectOne(Mockito.any());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.websocket.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AgentSessionRegistryTest {
+
+    private Session mockSession(String id) {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    @Test
+    public void testRegisterAndUnregister() {
+        AgentSessionRegistry registry = new AgentSessionRegistry();
+        Session session = mockSession("s1");
+
+        Assert.assertNull(registry.register(1, session));
+        Assert.assertEquals(session, registry.getSession(1));
+        Assert.assertEquals(Integer.valueOf(1), registry.getAgentId(session));
+        Assert.assertTrue(registry.getConnectTime(1) > 0);
+        Assert.assertEquals(1, registry.size());
+
+        Assert.assertEquals(Integer.valueOf(1), registry.unregister(session));
+        Assert.assertNull(registry.getSession(1));
+        Assert.assertEquals(0, registry.size());
+        Assert.assertNull(registry.unregister(session));
+    }
+
+    @Test
+    public void testReplaceOnReconnect() throws Exception {
+        AgentSessionRegistry registry = new AgentSessionRegistry();
+        Session oldSession = mockSession("s1");
+        Session newSession = mockSession("s2");
+
+        registry.register(1, oldSession);
+        AgentSessionRegistry.AgentSession replaced = registry.register(1, newSession);
+
+        Assert.assertNotNull(replaced);
+        Assert.assertEquals(oldSession, replaced.getSession());
+        Mockito.verify(oldSession).close();
+        Assert.assertEquals(newSession, registry.getSession(1));
+        Assert.assertEquals(1, registry.getReplaceCount());
+
+        // 旧会话随后触发 onClose，不能把新会话移除
+        Assert.assertNull(registry.unregister(oldSession));
+        Assert.assertEquals(newSession, registry.getSession(1));
+    }
+
+    @Test
+    public void testBatchSeq() {
+        AgentSessionRegistry registry = new AgentSessionRegistry();
+        registry.register(1, mockSession("s1"));
+        AgentSessionRegistry.AgentSession agentSession = registry.get(1);
+
+        Assert.assertTrue(agentSession.acceptBatchSeq(1));
+        Assert.assertTrue(agentSession.acceptBatchSeq(2));
+        Assert.assertFalse(agentSession.acceptBatchSeq(2));
+        Assert.assertTrue(agentSession.acceptBatchSeq(5));
+        Assert.assertFalse(agentSession.acceptBatchSeq(3));
+        Assert.assertEquals(5, agentSession.getLastBatchSeq());
+
+        // 重连后序号重新开始，第一批可以是 0
+        registry.register(1, mockSession("s2"));
+        Assert.assertEquals(-1, registry.get(1).getLastBatchSeq());
+        Assert.assertTrue(registry.get(1).acceptBatchSeq(0));
+        Assert.assertFalse(registry.get(1).acceptBatchSeq(0));
+        Assert.assertTrue(registry.get(1).acceptBatchSeq(1));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class KeeperShardRingTest {
+
+    @Test
+    public void testBalance() {
+        KeeperShardRing.Ring ring = new KeeperShardRing.Ring(List.of("a", "b", "c"), 160);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            counts.merge(ring.locate("udId-" + i), 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            Assert.assertTrue(count > 7000 && count < 13000);
+        }
+    }
+
+    @Test
+    public void testMinimalMovement() {
+        KeeperShardRing.Ring before = new KeeperShardRing.Ring(List.of("a", "b", "c"), 160);
+        KeeperShardRing.Ring after = new KeeperShardRing.Ring(List.of("a", "b", "c", "d"), 160);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String owner = before.locate("udId-" + i);
+            String now = after.locate("udId-" + i);
+            if (!owner.equals(now)) {
+                // 只会迁移到新加入的实例
+                Assert.assertEquals("d", now);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 1500 && moved < 3500);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class OutboundMailboxTest {
+
+    private Session congestedSession(RemoteEndpoint.Async async) {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getId()).thenReturn("s1");
+        Mockito.when(session.isOpen()).thenReturn(true);
+        Mockito.when(session.getAsyncRemote()).thenReturn(async);
+        return session;
+    }
+
+    @Test
+    public void testDropOldestAndCoalesce() {
+        RemoteEndpoint.Async async = Mockito.mock(RemoteEndpoint.Async.class);
+        OutboundStats stats = new OutboundStats();
+        OutboundMailbox mailbox = new OutboundMailbox(congestedSession(async), 2,
+                OutboundMailbox.OverflowPolicy.DROP_OLDEST, Runnable::run, stats);
+
+        // 第一条立即交给异步 remote，且一直未完成
+        Assert.assertTrue(mailbox.offer("first", null));
+        Assert.assertTrue(mailbox.offer("settings-1", "settings"));
+        Assert.assertTrue(mailbox.offer("settings-2", "settings"));
+        Assert.assertEquals(1, mailbox.size());
+        Assert.assertEquals(1, stats.getCoalesced());
+
+        Assert.assertTrue(mailbox.offer("a", null));
+        Assert.assertTrue(mailbox.offer("b", null));
+        Assert.assertEquals(2, mailbox.size());
+        Assert.assertEquals(1, stats.getDropped());
+
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+        Mockito.verify(async).sendText(Mockito.eq("first"), handler.capture());
+        handler.getValue().onResult(new SendResult());
+        Mockito.verify(async).sendText(Mockito.eq("a"), Mockito.any());
+        Assert.assertEquals(1, stats.getSent());
+    }
+
+    @Test
+    public void testDropNewest() {
+        RemoteEndpoint.Async async = Mockito.mock(RemoteEndpoint.Async.class);
+        OutboundMailbox mailbox = new OutboundMailbox(congestedSession(async), 1,
+                OutboundMailbox.OverflowPolicy.DROP_NEWEST, Runnable::run, new OutboundStats());
+
+        Assert.assertTrue(mailbox.offer("first", null));
+        Assert.assertTrue(mailbox.offer("second", null));
+        Assert.assertFalse(mailbox.offer("third", null));
+        Assert.assertEquals(1, mailbox.size());
+    }
+}
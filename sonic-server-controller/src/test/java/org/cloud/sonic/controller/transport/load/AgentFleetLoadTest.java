@@ -0,0 +1,115 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport.load;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * agent 通道压测，默认跳过。针对一个测试环境的 controller 实例运行：
+ * <pre>
+ * mvn -pl sonic-server-controller test -Dtest=AgentFleetLoadTest \
+ *   -Dsonic.load.url=ws://127.0.0.1:PORT -Dsonic.load.agentKeys=key1,key2 \
+ *   -Dsonic.load.agents=50 -Dsonic.load.rate=20 -Dsonic.load.seconds=60 -Dsonic.load.rid=1
+ * </pre>
+ * 每个 agentKey 对应 agents 表中的一行，模拟 agent 按顺序轮流使用；同一个 key 只有第一个连接上报 agentInfo。
+ * 会改写对应 agent 的 host/port，并创建 load- 开头的设备与 rid 下的步骤，请勿对生产库运行。
+ * <p>
+ * 输出客户端吞吐与 ping 往返时延，以及从 /actuator/prometheus 得到的各 msg 处理耗时 p50/p99、每条消息的 SQL 语句数。
+ */
+public class AgentFleetLoadTest {
+
+    @Test
+    public void run() throws Exception {
+        String url = System.getProperty("sonic.load.url");
+        Assume.assumeTrue("set -Dsonic.load.url to run", url != null);
+        String[] keys = System.getProperty("sonic.load.agentKeys", "").split(",");
+        int agents = Integer.getInteger("sonic.load.agents", 50);
+        int rate = Integer.getInteger("sonic.load.rate", 20);
+        int seconds = Integer.getInteger("sonic.load.seconds", 60);
+        int devices = Integer.getInteger("sonic.load.devices", 4);
+        int rid = Integer.getInteger("sonic.load.rid", 0);
+        String metricsUrl = System.getProperty("sonic.load.metrics",
+                url.replaceFirst("^ws", "http") + "/actuator/prometheus");
+
+        HttpClient client = HttpClient.newHttpClient();
+        List<SimulatedAgent> fleet = new ArrayList<>();
+        for (int i = 0; i < agents; i++) {
+            SimulatedAgent agent = new SimulatedAgent(url, keys[i % keys.length], devices, rid);
+            agent.start(client, i < keys.length);
+            fleet.add(agent);
+        }
+
+        PrometheusSnapshot before = PrometheusSnapshot.scrape(client, metricsUrl);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        long periodMicros = 1_000_000L / rate;
+        for (SimulatedAgent agent : fleet) {
+            scheduler.scheduleAtFixedRate(agent::tick, (long) (Math.random() * periodMicros), periodMicros, TimeUnit.MICROSECONDS);
+        }
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        // 等服务端处理完积压的消息
+        Thread.sleep(2000);
+        PrometheusSnapshot after = PrometheusSnapshot.scrape(client, metricsUrl);
+        for (SimulatedAgent agent : fleet) {
+            agent.close();
+        }
+
+        long sent = 0;
+        long received = 0;
+        long suites = 0;
+        List<Long> pings = new ArrayList<>();
+        for (SimulatedAgent agent : fleet) {
+            sent += agent.sent.get();
+            received += agent.received.get();
+            suites += agent.suites.get();
+            synchronized (agent.pingNanos) {
+                pings.addAll(agent.pingNanos);
+            }
+        }
+        Collections.sort(pings);
+        System.out.printf("agents=%d sent=%d (%.0f msg/s) received=%d suites=%d%n", agents, sent, sent / elapsed, received, suites);
+        if (!pings.isEmpty()) {
+            System.out.printf("ping rtt p50=%.2fms p99=%.2fms%n",
+                    pings.get(pings.size() / 2) / 1e6, pings.get((int) (pings.size() * 0.99)) / 1e6);
+        }
+
+        double inbound = after.sum("sonic_transport_inbound_total", null, null) - before.sum("sonic_transport_inbound_total", null, null);
+        double statements = after.sum("sonic_db_statements_total", null, null) - before.sum("sonic_db_statements_total", null, null);
+        System.out.printf("server inbound=%.0f db statements=%.0f (%.2f per message)%n", inbound, statements, inbound == 0 ? 0 : statements / inbound);
+        Map<String, TreeMap<Double, Double>> beforeBuckets = before.buckets("sonic_transport_inbound_handle_seconds");
+        for (Map.Entry<String, TreeMap<Double, Double>> e : after.buckets("sonic_transport_inbound_handle_seconds").entrySet()) {
+            TreeMap<Double, Double> b = beforeBuckets.get(e.getKey());
+            System.out.printf("handle %-14s p50=%.2fms p99=%.2fms%n", e.getKey(),
+                    PrometheusSnapshot.quantile(b, e.getValue(), 0.5) * 1000, PrometheusSnapshot.quantile(b, e.getValue(), 0.99) * 1000);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * /actuator/prometheus 的一次抓取结果，用于计算压测前后的差值
+ */
+public class PrometheusSnapshot {
+
+    private static final Pattern LINE = Pattern.compile("^([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{(.*)})?\\s+(\\S+)$");
+    private static final Pattern LABEL = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    private final List<Sample> samples = new ArrayList<>();
+
+    public static PrometheusSnapshot scrape(HttpClient client, String url) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        PrometheusSnapshot snapshot = new PrometheusSnapshot();
+        for (String line : response.body().split("\n")) {
+            Matcher m = LINE.matcher(line.trim());
+            if (line.startsWith("#") || !m.matches()) {
+                continue;
+            }
+            Map<String, String> labels = new HashMap<>();
+            if (m.group(3) != null) {
+                Matcher l = LABEL.matcher(m.group(3));
+                while (l.find()) {
+                    labels.put(l.group(1), l.group(2));
+                }
+            }
+            snapshot.samples.add(new Sample(m.group(1), labels, Double.parseDouble(m.group(4))));
+        }
+        return snapshot;
+    }
+
+    /**
+     * 同名指标（可按一个标签过滤）的合计
+     */
+    public double sum(String name, String label, String value) {
+        double total = 0;
+        for (Sample s : samples) {
+            if (s.name.equals(name) && (label == null || value.equals(s.labels.get(label)))) {
+                total += s.value;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 按 msg 汇总的直方图桶，le -> 累计数
+     */
+    public Map<String, TreeMap<Double, Double>> buckets(String name) {
+        Map<String, TreeMap<Double, Double>> result = new HashMap<>();
+        for (Sample s : samples) {
+            if (s.name.equals(name + "_bucket") && !"+Inf".equals(s.labels.get("le"))) {
+                result.computeIfAbsent(s.labels.get("msg"), k -> new TreeMap<>())
+                        .merge(Double.parseDouble(s.labels.get("le")), s.value, Double::sum);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 由前后两次桶计数之差估算分位数（取所在桶的上界）
+     */
+    public static double quantile(TreeMap<Double, Double> before, TreeMap<Double, Double> after, double q) {
+        if (after == null || after.isEmpty()) {
+            return Double.NaN;
+        }
+        double total = after.lastEntry().getValue() - (before == null || before.isEmpty() ? 0 : before.lastEntry().getValue());
+        if (total <= 0) {
+            return Double.NaN;
+        }
+        for (Map.Entry<Double, Double> e : after.entrySet()) {
+            double count = e.getValue() - (before == null ? 0 : before.getOrDefault(e.getKey(), 0d));
+            if (count >= total * q) {
+                return e.getKey();
+            }
+        }
+        return after.lastKey();
+    }
+
+    private record Sample(String name, Map<String, String> labels, double value) {
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *   sonic-server  Sonic Cloud Real Machine Platform.
+ *   Copyright (C) 2022 SonicCloudOrg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as published
+ *   by the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Affero General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.cloud.sonic.controller.transport.load;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟的 agent：通过 /agent/{agentKey} 接入，鉴权后上报 agentInfo 与设备，
+ * 之后按比例发送 heartBeat、battery、deviceDetail、step、status，并应答 suite。
+ */
+public class SimulatedAgent implements WebSocket.Listener {
+
+    private final String url;
+    private final String agentKey;
+    private final int devices;
+    private final int rid;
+    private final StringBuilder frame = new StringBuilder();
+    private final CompletableFuture<Integer> auth = new CompletableFuture<>();
+    private final ConcurrentLinkedQueue<Long> pings = new ConcurrentLinkedQueue<>();
+
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong received = new AtomicLong();
+    final AtomicLong suites = new AtomicLong();
+    final List<Long> pingNanos = new ArrayList<>();
+
+    private WebSocket webSocket;
+    private int agentId;
+
+    public SimulatedAgent(String url, String agentKey, int devices, int rid) {
+        this.url = url;
+        this.agentKey = agentKey;
+        this.devices = devices;
+        this.rid = rid;
+    }
+
+    /**
+     * 建立连接并完成 agentInfo、deviceDetail 上报
+     */
+    public void start(HttpClient client, boolean register) throws Exception {
+        webSocket = client.newWebSocketBuilder()
+                .buildAsync(URI.create(url + "/agent/" + agentKey), this)
+                .get(10, TimeUnit.SECONDS);
+        agentId = auth.get(10, TimeUnit.SECONDS);
+        if (register) {
+            JSONObject agentInfo = message("agentInfo");
+            agentInfo.put("host", "127.0.0.1");
+            agentInfo.put("port", 7777);
+            agentInfo.put("version", "load-test");
+            agentInfo.put("systemType", "Linux");
+            send(agentInfo);
+        }
+        for (int i = 0; i < devices; i++) {
+            JSONObject detail = message("deviceDetail");
+            detail.put("udId", udId(i));
+            detail.put("name", "load-" + i);
+            detail.put("model", "load");
+            detail.put("status", "ONLINE");
+            detail.put("platform", 1);
+            detail.put("version", "13");
+            detail.put("size", "1080x2400");
+            detail.put("cpu", "arm64-v8a");
+            send(detail);
+        }
+    }
+
+    /**
+     * 按比例发送一条消息：heartBeat 5%，battery 10%，deviceDetail 5%，ping 5%，
+     * rid 不为 0 时 step 70%、status 5%，否则全部换成 battery
+     */
+    public void tick() {
+        int dice = ThreadLocalRandom.current().nextInt(100);
+        if (dice < 5) {
+            send(message("heartBeat"));
+        } else if (dice < 10) {
+            pings.add(System.nanoTime());
+            send(message("ping"));
+        } else if (dice < 15) {
+            JSONObject detail = message("deviceDetail");
+            detail.put("udId", udId(ThreadLocalRandom.current().nextInt(devices)));
+            detail.put("status", "ONLINE");
+            send(detail);
+        } else if (dice < 25 || rid == 0) {
+            send(battery());
+        } else if (dice < 95) {
+            send(step(rid, 0, "step"));
+        } else {
+            send(step(rid, 0, "status"));
+        }
+    }
+
+    public void close() {
+        if (webSocket != null) {
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "done").join();
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        frame.append(data);
+        if (last) {
+            String text = frame.toString();
+            frame.setLength(0);
+            received.incrementAndGet();
+            handle(JSON.parseObject(text));
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        auth.completeExceptionally(error);
+    }
+
+    private void handle(JSONObject jsonObject) {
+        switch (jsonObject.getString("msg")) {
+            case "auth" -> {
+                if ("pass".equals(jsonObject.getString("result"))) {
+                    auth.complete(jsonObject.getInteger("id"));
+                } else {
+                    auth.completeExceptionally(new IllegalStateException("auth failed: " + agentKey));
+                }
+            }
+            case "pong" -> {
+                Long start = pings.poll();
+                if (start != null) {
+                    synchronized (pingNanos) {
+                        pingNanos.add(System.nanoTime() - start);
+                    }
+                }
+            }
+            case "suite" -> answerSuite(jsonObject);
+            default -> {
+            }
+        }
+        if (jsonObject.containsKey("seq") && jsonObject.containsKey("outbox")) {
+            JSONObject ack = message("ack");
+            ack.put("outbox", jsonObject.getString("outbox"));
+            ack.put("seq", jsonObject.getLong("seq"));
+            send(ack);
+        }
+        if (jsonObject.containsKey("requestId")) {
+            JSONObject reply = message("reply");
+            reply.put("requestId", jsonObject.getString("requestId"));
+            reply.put("replyInstance", jsonObject.getString("replyInstance"));
+            send(reply);
+        }
+    }
+
+    /**
+     * 每个用例回 5 条 step 和一条 status
+     */
+    private void answerSuite(JSONObject suite) {
+        suites.incrementAndGet();
+        JSONArray cases = suite.getJSONArray("cases");
+        if (cases == null) {
+            return;
+        }
+        for (int i = 0; i < cases.size(); i++) {
+            JSONObject c = cases.getJSONObject(i);
+            for (int j = 0; j < 5; j++) {
+                send(step(c.getIntValue("rid"), c.getIntValue("cid"), "step"));
+            }
+            send(step(c.getIntValue("rid"), c.getIntValue("cid"), "status"));
+        }
+    }
+
+    private JSONObject message(String msg) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("msg", msg);
+        jsonObject.put("agentId", agentId);
+        return jsonObject;
+    }
+
+    private JSONObject battery() {
+        JSONObject battery = message("battery");
+        JSONArray detail = new JSONArray();
+        for (int i = 0; i < devices; i++) {
+            JSONObject d = new JSONObject();
+            d.put("udId", udId(i));
+            d.put("tem", 250 + ThreadLocalRandom.current().nextInt(150));
+            d.put("level", ThreadLocalRandom.current().nextInt(100));
+            d.put("vol", 3800 + ThreadLocalRandom.current().nextInt(400));
+            detail.add(d);
+        }
+        battery.put("detail", detail);
+        return battery;
+    }
+
+    private JSONObject step(int rid, int cid, String msg) {
+        JSONObject step = message(msg);
+        step.put("rid", rid);
+        step.put("cid", cid);
+        step.put("udId", udId(0));
+        step.put("log", "load test " + msg);
+        step.put("des", "");
+        step.put("status", 1);
+        step.put("time", System.currentTimeMillis());
+        return step;
+    }
+
+    private String udId(int index) {
+        return "load-" + agentKey.hashCode() + "-" + index;
+    }
+
+    /**
+     * 同一连接上的发送必须串行
+     */
+    private synchronized void send(JSONObject jsonObject) {
+        webSocket.sendText(jsonObject.toJSONString(), true).join();
+        sent.incrementAndGet();
+    }
+}